@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.plugin.Extension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.schedule.Scheduler;
+import sonia.scm.schedule.Task;
+import sonia.scm.web.security.AdministrationContext;
+
+import jakarta.inject.Inject;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Refreshes the sizes of repositories in the background. Every minute the repositories whose
+ * {@link RefreshSchedule} is due are queued, at most a configured number at a time. A repository is not queued
+ * again while its refresh is still pending, and a run is skipped while the refreshes of earlier runs occupy the
+ * whole batch, so a slow refresh executor does not pile up work. Because the interval of
+ * each repository adapts to its pushes and size changes, the background cost scales with the activity on the
+ * instance and not with the number of repositories.
+ */
+@Extension
+public class AdaptiveRefreshScheduler implements ServletContextListener {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveRefreshScheduler.class);
+
+  private static final String EXPRESSION = "30 * * * * ?";
+
+  private final Scheduler scheduler;
+  private final AdministrationContext administrationContext;
+  private final RepositoryManager repositoryManager;
+  private final RepositorySizeService sizeService;
+  private final RefreshScheduleStore scheduleStore;
+  private final RepositorySizeConfig config;
+
+  private final Set<String> pendingRepositoryIds = ConcurrentHashMap.newKeySet();
+
+  private Task task;
+
+  @Inject
+  public AdaptiveRefreshScheduler(Scheduler scheduler,
+                                  AdministrationContext administrationContext,
+                                  RepositoryManager repositoryManager,
+                                  RepositorySizeService sizeService,
+                                  RefreshScheduleStore scheduleStore,
+                                  RepositorySizeConfig config) {
+    this.scheduler = scheduler;
+    this.administrationContext = administrationContext;
+    this.repositoryManager = repositoryManager;
+    this.sizeService = sizeService;
+    this.scheduleStore = scheduleStore;
+    this.config = config;
+  }
+
+  @Override
+  public void contextInitialized(ServletContextEvent servletContextEvent) {
+    if (config.isAdaptiveRefreshEnabled()) {
+      task = scheduler.schedule(EXPRESSION, () -> administrationContext.runAsAdmin(this::queueDueRepositories));
+    }
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent servletContextEvent) {
+    if (task != null) {
+      task.cancel();
+    }
+  }
+
+  void queueDueRepositories() {
+    int freeSlots = config.getRefreshBatchSize() - pendingRepositoryIds.size();
+    if (freeSlots <= 0) {
+      LOG.debug("skipping background refresh, {} refreshes are still pending", pendingRepositoryIds.size());
+      return;
+    }
+    long now = System.currentTimeMillis();
+    long minIntervalSeconds = config.getMinRefreshIntervalSeconds();
+    List<Repository> due = repositoryManager.getAll()
+      .stream()
+      .filter(repository -> !pendingRepositoryIds.contains(repository.getId()))
+      .filter(repository -> schedule(repository, now).isDue(now))
+      .sorted(Comparator.comparingLong(repository -> schedule(repository, now).getNextRefreshAt()))
+      .limit(freeSlots)
+      .toList();
+
+    for (Repository repository : due) {
+      scheduleStore.update(repository.getId(), now, minIntervalSeconds, schedule -> schedule.onQueued(now));
+      queue(repository);
+    }
+  }
+
+  private void queue(Repository repository) {
+    Optional<Double> previousSize = sizeService.getLastCalculated(repository)
+      .map(RepositorySizeSnapshot::getTotalSizeInBytes);
+
+    pendingRepositoryIds.add(repository.getId());
+    sizeService.refreshInBackground(repository).whenComplete((snapshot, error) -> {
+      pendingRepositoryIds.remove(repository.getId());
+      if (isCancellation(error)) {
+        LOG.debug("background refresh of repository size was cancelled for {}", repository);
+        return;
+      }
+      if (error != null) {
+        LOG.warn("background refresh of repository size failed for {}", repository, error);
+        return;
+      }
+      // the first calculation counts as unchanged, so that inactive repositories back off quickly
+      boolean changed = previousSize
+        .map(size -> size != snapshot.getTotalSizeInBytes())
+        .orElse(false);
+      long minIntervalSeconds = config.getMinRefreshIntervalSeconds();
+      scheduleStore.update(
+        repository.getId(),
+        System.currentTimeMillis(),
+        minIntervalSeconds,
+        schedule -> schedule.onRefreshed(System.currentTimeMillis(), changed, minIntervalSeconds, config.getMaxRefreshIntervalSeconds())
+      );
+    });
+  }
+
+  private boolean isCancellation(Throwable error) {
+    // queued refreshes are cancelled on shutdown
+    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+    return cause instanceof CancellationException;
+  }
+
+  private RefreshSchedule schedule(Repository repository, long now) {
+    return scheduleStore.get(repository.getId(), now, config.getMinRefreshIntervalSeconds());
+  }
+}
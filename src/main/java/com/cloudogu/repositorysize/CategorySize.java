@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The result of the size calculation for a single {@link SizeCategory} of a repository.
+ */
+@AllArgsConstructor
+@Getter
+public class CategorySize {
+  private final double sizeInBytes;
+  private final List<LargestFile> largestFiles;
+  // files and directories which could not be read, the size is a lower bound if there are any
+  private final ScanErrors errors;
+  private final WalkStatistics walked;
+
+  public CategorySize(double sizeInBytes, List<LargestFile> largestFiles) {
+    this(sizeInBytes, largestFiles, ScanErrors.NONE);
+  }
+
+  public CategorySize(double sizeInBytes, List<LargestFile> largestFiles, ScanErrors errors) {
+    this(sizeInBytes, largestFiles, errors, WalkStatistics.NONE);
+  }
+
+  public long getErrorCount() {
+    return errors.getCount();
+  }
+}
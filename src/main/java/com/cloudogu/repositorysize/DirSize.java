@@ -20,19 +20,59 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.stream.Stream;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
 
 public class DirSize {
   private static final Logger LOG = LoggerFactory.getLogger(DirSize.class);
 
   private final String dirPath;
+  private final LargestFiles largestFiles;
+  private final Set<Path> excludedDirectories;
+  private final BiConsumer<Path, BasicFileAttributes> fileListener;
   private double folderSize;
+  private long fileCount;
+  private long directoryCount;
+  private long errorCount;
+  private final Map<String, Long> errorsByCause = new TreeMap<>();
+  private final List<String> errorSamples = new ArrayList<>();
+  private long fileSystemNanos;
 
   public DirSize(String dirPath) {
+    this(dirPath, null);
+  }
+
+  public DirSize(String dirPath, LargestFiles largestFiles) {
+    this(dirPath, largestFiles, Set.of());
+  }
+
+  /**
+   * Calculates the size of the directory without the given subdirectories. The excluded directories have to
+   * be resolved against the path of this directory.
+   */
+  public DirSize(String dirPath, LargestFiles largestFiles, Set<Path> excludedDirectories) {
+    this(dirPath, largestFiles, excludedDirectories, (file, attributes) -> {});
+  }
+
+  /**
+   * Calculates the size of the directory and passes every regular file with its attributes to the given
+   * listener, so that callers can keep per file state without walking the directory again.
+   */
+  public DirSize(String dirPath, LargestFiles largestFiles, Set<Path> excludedDirectories, BiConsumer<Path, BasicFileAttributes> fileListener) {
     this.dirPath = dirPath;
+    this.largestFiles = largestFiles;
+    this.excludedDirectories = excludedDirectories;
+    this.fileListener = fileListener;
     calculate();
   }
 
@@ -40,29 +80,161 @@ public class DirSize {
     return this.folderSize;
   }
 
+  public long getFileCount() {
+    return fileCount;
+  }
+
+  public long getDirectoryCount() {
+    return directoryCount;
+  }
+
+  /**
+   * Number of files and directories which could not be read, if this is not zero the size is a lower bound.
+   */
+  public long getErrorCount() {
+    return errorCount;
+  }
+
+  /**
+   * Number of errors by the simple class name of the exception, e.g. {@code AccessDeniedException}.
+   */
+  public Map<String, Long> getErrorsByCause() {
+    return Collections.unmodifiableMap(errorsByCause);
+  }
+
+  /**
+   * The paths of the first files and directories which could not be read.
+   */
+  public List<String> getErrorSamples() {
+    return Collections.unmodifiableList(errorSamples);
+  }
+
+  /**
+   * Time spent in the file system while walking, this is only measured while flight recording is enabled.
+   */
+  public long getFileSystemNanos() {
+    return fileSystemNanos;
+  }
+
   private String resolveDirPath() {
     return this.dirPath;
   }
 
   private void calculate() {
-    if (!Files.exists(Path.of(this.resolveDirPath()))) {
+    Path dir = Path.of(this.resolveDirPath());
+    if (!Files.exists(dir)) {
       this.folderSize = -1;
       return;
     }
-    try (Stream<Path> walk = Files.walk(Paths.get(this.resolveDirPath()))) {
-      this.folderSize = walk
-        .filter(Files::isRegularFile)
-        .mapToLong(path -> {
-          try {
-            return Files.size(path);
-          } catch (IOException e) {
-            LOG.error("Error calculating folder size: " + path, e);
-            return 0;
-          }
-        })
-        .sum();
+    DirectoryScanEvent event = new DirectoryScanEvent();
+    event.begin();
+    // walkFileTree passes the attributes read while listing the directory,
+    // so size and modification time do not need an extra stat per file
+    SizeVisitor visitor = new SizeVisitor(event.isEnabled());
+    try {
+      Files.walkFileTree(dir, visitor);
     } catch (IOException e) {
-      LOG.error("Error calculating folder size", e);
+      recordError(dir, e);
+    }
+    visitor.leaveFileSystem();
+    this.folderSize = visitor.size;
+
+    event.path = resolveDirPath();
+    event.files = fileCount;
+    event.directories = directoryCount;
+    event.bytes = visitor.size;
+    event.errors = errorCount;
+    event.fileSystemTime = fileSystemNanos;
+    event.commit();
+  }
+
+  // errors are only collected here, the caller reports the merged errors of the whole scan
+  private void recordError(Path path, IOException e) {
+    errorCount++;
+    errorsByCause.merge(e.getClass().getSimpleName(), 1L, Long::sum);
+    if (errorSamples.size() < ScanErrors.SAMPLES) {
+      errorSamples.add(path.toString());
+    }
+    LOG.debug("could not read {}", path, e);
+  }
+
+  private class SizeVisitor extends SimpleFileVisitor<Path> {
+
+    private final boolean measure;
+    private long size;
+    private long enteredFileSystemAt;
+
+    SizeVisitor(boolean measure) {
+      this.measure = measure;
+      this.enteredFileSystemAt = measure ? System.nanoTime() : 0;
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+      if (excludedDirectories.contains(dir)) {
+        return FileVisitResult.SKIP_SUBTREE;
+      }
+      leaveFileSystem();
+      directoryCount++;
+      enterFileSystem();
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+      leaveFileSystem();
+      BasicFileAttributes fileAttributes = attributes.isSymbolicLink() ? followLink(file) : attributes;
+      if (fileAttributes != null && fileAttributes.isRegularFile()) {
+        fileCount++;
+        size += fileAttributes.size();
+        if (largestFiles != null) {
+          largestFiles.offer(file, fileAttributes);
+        }
+        fileListener.accept(file, fileAttributes);
+      }
+      enterFileSystem();
+      return FileVisitResult.CONTINUE;
+    }
+
+    // links to regular files are counted with the size of their target, like Files.isRegularFile did before
+    private BasicFileAttributes followLink(Path file) {
+      try {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+      } catch (IOException e) {
+        // dangling links are no regular files
+        return null;
+      }
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+      if (e != null) {
+        leaveFileSystem();
+        recordError(dir, e);
+        enterFileSystem();
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException e) {
+      leaveFileSystem();
+      recordError(file, e);
+      enterFileSystem();
+      return FileVisitResult.CONTINUE;
+    }
+
+    // everything between two callbacks is spent by the walker reading directories and attributes
+    private void enterFileSystem() {
+      if (measure) {
+        enteredFileSystemAt = System.nanoTime();
+      }
+    }
+
+    private void leaveFileSystem() {
+      if (measure) {
+        fileSystemNanos += System.nanoTime() - enteredFileSystemAt;
+      }
     }
   }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for the walk of a single directory by {@link DirSize}.
+ */
+@Name("com.cloudogu.repositorysize.DirectoryScan")
+@Label("Directory Size Scan")
+@Category({"SCM-Manager", "Repository Size"})
+@Description("Walk over a directory to calculate its size")
+class DirectoryScanEvent extends Event {
+
+  @Label("Path")
+  String path;
+
+  @Label("Files")
+  long files;
+
+  @Label("Directories")
+  long directories;
+
+  @Label("Size")
+  @DataAmount
+  long bytes;
+
+  @Label("I/O Errors")
+  long errors;
+
+  @Label("File System Time")
+  @Description("Time spent waiting for the file system, outside of the size accounting")
+  @Timespan(Timespan.NANOSECONDS)
+  long fileSystemTime;
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import sonia.scm.plugin.Extension;
+import sonia.scm.repository.Repository;
+
+import jakarta.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calculates the size of mercurial repositories without walking every revlog. The file and tree manifest
+ * revlogs in {@code .hg/store/data} and {@code .hg/store/meta} are only written by transactions, which always
+ * append to the changelog, too. Stripping a repository truncates the changelog as well. So the revlogs are only
+ * listed again if length or modification time of the changelog index have changed. The top level files of the
+ * store are read on every calculation.
+ * <p>
+ * Length and modification time of every revlog are kept instead of a single total, so that a new listing
+ * replaces the entries of changed revlogs and drops those of removed ones, and the largest files are derived
+ * from the entries for any limit. The listing is a walk over the revlog directories, because appending to a
+ * revlog does not touch its directory, so its cost is one stat per revlog. The {@code fncache} of the store is not
+ * used for it, because it contains the paths of the tracked files and not the encoded names of the revlogs.
+ */
+@Extension
+@Singleton
+public class HgSizeProvider implements RepositorySizeProvider {
+
+  private static final String TYPE = "hg";
+  private static final String DATA = "data";
+  private static final String CHANGELOG = "00changelog.i";
+  private static final List<String> REVLOG_DIRECTORIES = List.of("data", "meta");
+
+  private final ConcurrentMap<String, Revlogs> revlogs = new ConcurrentHashMap<>();
+
+  @Override
+  public Optional<CategorySize> calculate(Repository repository, SizeCategory category, Path location, int largestFilesLimit) {
+    if (!TYPE.equals(repository.getType()) || category != SizeCategory.REPOSITORY) {
+      return Optional.empty();
+    }
+    Path data = location.resolve(DATA);
+    Path store = data.resolve(".hg").resolve("store");
+    Optional<Fingerprint> changelog = fingerprint(store.resolve(CHANGELOG));
+    if (changelog.isEmpty()) {
+      // empty repository or a layout without store, nothing to gain
+      return Optional.empty();
+    }
+
+    Set<Path> revlogDirectories = new HashSet<>();
+    for (String name : REVLOG_DIRECTORIES) {
+      Path directory = store.resolve(name);
+      if (Files.isDirectory(directory)) {
+        revlogDirectories.add(directory);
+      }
+    }
+
+    LargestFiles largestFiles = new LargestFiles(largestFilesLimit, location, SizeCategory.REPOSITORY);
+    DirSize dataSize = new DirSize(data.toString(), largestFiles, revlogDirectories);
+    double size = dataSize.inBytes();
+    ScanErrors errors = ScanErrors.of(dataSize);
+    WalkStatistics walked = WalkStatistics.of(dataSize);
+
+    Revlogs known = revlogs.get(repository.getId());
+    if (known == null || !known.changelog().equals(changelog.get())) {
+      Listing listing = list(revlogDirectories);
+      errors = errors.plus(listing.errors());
+      walked = walked.plus(listing.walked());
+      known = new Revlogs(changelog.get(), listing.revlogs());
+      FileTime cacheableBefore = RacyTimestamp.cacheableBefore();
+      if (listing.complete() && listing.errors().getCount() == 0 && changelog.get().lastModified().compareTo(cacheableBefore) < 0) {
+        revlogs.put(repository.getId(), known);
+      } else {
+        revlogs.remove(repository.getId());
+      }
+    }
+    for (Map.Entry<Path, Fingerprint> revlog : known.revlogs().entrySet()) {
+      size += revlog.getValue().size();
+      largestFiles.offer(revlog.getKey(), revlog.getValue().size(), revlog.getValue().lastModified());
+    }
+    return Optional.of(new CategorySize(size, largestFiles.toList(), errors, walked));
+  }
+
+  @Override
+  public void forget(Repository repository) {
+    revlogs.remove(repository.getId());
+  }
+
+  private Optional<Fingerprint> fingerprint(Path file) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      return Optional.of(new Fingerprint(attributes.size(), attributes.lastModifiedTime()));
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+  }
+
+  private Listing list(Set<Path> revlogDirectories) {
+    Map<Path, Fingerprint> listed = new HashMap<>();
+    ScanErrors errors = ScanErrors.NONE;
+    WalkStatistics walked = WalkStatistics.NONE;
+    boolean complete = true;
+    for (Path directory : revlogDirectories) {
+      DirSize dirSize = new DirSize(
+        directory.toString(),
+        null,
+        Set.of(),
+        (file, attributes) -> listed.put(file, new Fingerprint(attributes.size(), attributes.lastModifiedTime()))
+      );
+      if (dirSize.inBytes() < 0) {
+        // the directory has been removed while listing
+        complete = false;
+      }
+      errors = errors.plus(ScanErrors.of(dirSize));
+      walked = walked.plus(WalkStatistics.of(dirSize));
+    }
+    return new Listing(Map.copyOf(listed), errors, walked, complete);
+  }
+
+  private record Fingerprint(long size, FileTime lastModified) {
+  }
+
+  private record Revlogs(Fingerprint changelog, Map<Path, Fingerprint> revlogs) {
+  }
+
+  private record Listing(Map<Path, Fingerprint> revlogs, ScanErrors errors, WalkStatistics walked, boolean complete) {
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the n largest files of a repository. Internally a min-heap is used, so that the smallest of the
+ * collected files can be dropped in constant time once a larger file is found.
+ */
+public class LargestFiles {
+
+  private static final Comparator<LargestFile> BY_SIZE = Comparator.comparingLong(LargestFile::getSizeInBytes);
+
+  private final int limit;
+  private final Path root;
+  private final SizeCategory category;
+  private final PriorityQueue<LargestFile> heap = new PriorityQueue<>(BY_SIZE);
+  private final Map<String, LargestFile> byPath = new HashMap<>();
+
+  /**
+   * Creates a collector which is only used to merge the results of other collectors.
+   */
+  public LargestFiles(int limit) {
+    this(limit, null, null);
+  }
+
+  /**
+   * Creates a collector for a walk over the files of the given category. Paths are stored relative to the
+   * root directory of the repository.
+   */
+  public LargestFiles(int limit, Path root, SizeCategory category) {
+    this.limit = limit;
+    this.root = root;
+    this.category = category;
+  }
+
+  void offer(Path file, BasicFileAttributes attributes) {
+    offer(file, attributes.size(), attributes.lastModifiedTime());
+  }
+
+  void offer(Path file, long size, FileTime lastModified) {
+    if (limit <= 0 || (heap.size() >= limit && size <= heap.peek().getSizeInBytes())) {
+      return;
+    }
+    add(new LargestFile(
+      root.relativize(file).toString(),
+      size,
+      category,
+      lastModified.toMillis()
+    ));
+  }
+
+  public void addAll(Collection<LargestFile> files) {
+    files.forEach(this::add);
+  }
+
+  private void add(LargestFile file) {
+    if (limit <= 0) {
+      return;
+    }
+    LargestFile known = byPath.get(file.getPath());
+    if (known != null) {
+      // the store walk also visits lfs and export files, the more specific category wins
+      if (known.getCategory() == SizeCategory.STORE && file.getCategory() != SizeCategory.STORE) {
+        heap.remove(known);
+        heap.add(file);
+        byPath.put(file.getPath(), file);
+      }
+      return;
+    }
+    heap.add(file);
+    byPath.put(file.getPath(), file);
+    if (heap.size() > limit) {
+      byPath.remove(heap.poll().getPath());
+    }
+  }
+
+  /**
+   * Returns the collected files, largest first.
+   */
+  public List<LargestFile> toList() {
+    List<LargestFile> files = new ArrayList<>(heap);
+    files.sort(BY_SIZE.reversed());
+    return files;
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import com.github.legman.Subscribe;
+import sonia.scm.EagerSingleton;
+import sonia.scm.plugin.Extension;
+import sonia.scm.repository.PostReceiveRepositoryHookEvent;
+
+import jakarta.inject.Inject;
+
+/**
+ * Brings the next background refresh of a repository forward, whenever it receives a push.
+ */
+@Extension
+@EagerSingleton
+public class PushListener {
+
+  private final RefreshScheduleStore scheduleStore;
+  private final RepositorySizeConfig config;
+
+  @Inject
+  public PushListener(RefreshScheduleStore scheduleStore, RepositorySizeConfig config) {
+    this.scheduleStore = scheduleStore;
+    this.config = config;
+  }
+
+  @Subscribe
+  public void onPush(PostReceiveRepositoryHookEvent event) {
+    long now = System.currentTimeMillis();
+    long minIntervalSeconds = config.getMinRefreshIntervalSeconds();
+    scheduleStore.update(
+      event.getRepository().getId(),
+      now,
+      minIntervalSeconds,
+      schedule -> schedule.onPush(now, minIntervalSeconds)
+    );
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+/**
+ * File systems store modification times with a limited resolution, so an entry which was modified within a short
+ * window could be modified again without changing its timestamp. Sizes which are cached by the modification time
+ * of an entry may therefore only be reused, if the entry was last modified before this window.
+ */
+final class RacyTimestamp {
+
+  private static final Duration RACY_WINDOW = Duration.ofSeconds(2);
+
+  private RacyTimestamp() {
+  }
+
+  /**
+   * Returns the time before which an entry has to be last modified, so that a size cached by its timestamp can be
+   * trusted.
+   */
+  static FileTime cacheableBefore() {
+    return FileTime.fromMillis(System.currentTimeMillis() - RACY_WINDOW.toMillis());
+  }
+}
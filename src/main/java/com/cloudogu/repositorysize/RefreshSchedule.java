@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * The background refresh schedule of a single repository. The interval is halved whenever the repository
+ * receives a push or its size has changed, and doubled whenever a refresh finds the size unchanged and the
+ * repository has not been pushed to within the interval, so the refresh frequency follows the activity of the
+ * repository within the configured bounds.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@XmlRootElement(name = "refresh-schedule")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class RefreshSchedule {
+  private long intervalSeconds;
+  private long nextRefreshAt;
+  private long lastPushAt;
+
+  /**
+   * Creates the schedule of a repository without one. The first refresh is spread over the minimal interval by
+   * the id of the repository, so that not all repositories become due at once after the plugin is installed.
+   */
+  static RefreshSchedule initial(String repositoryId, long now, long minIntervalSeconds) {
+    long offset = Math.floorMod(repositoryId.hashCode(), Math.max(1, minIntervalSeconds * 1000));
+    return new RefreshSchedule(minIntervalSeconds, now + offset, 0);
+  }
+
+  boolean isDue(long now) {
+    return nextRefreshAt <= now;
+  }
+
+  void onPush(long now, long minIntervalSeconds) {
+    lastPushAt = now;
+    intervalSeconds = Math.max(minIntervalSeconds, intervalSeconds / 2);
+    nextRefreshAt = Math.min(nextRefreshAt, now + minIntervalSeconds * 1000);
+  }
+
+  void onQueued(long now) {
+    // prevents queueing the same repository again until the refresh has finished
+    nextRefreshAt = now + intervalSeconds * 1000;
+  }
+
+  void onRefreshed(long now, boolean changed, long minIntervalSeconds, long maxIntervalSeconds) {
+    if (changed) {
+      intervalSeconds = Math.max(minIntervalSeconds, intervalSeconds / 2);
+    } else if (!isPushedWithinInterval(now)) {
+      // a repository which is still pushed to keeps its interval, even if the size did not change this time
+      intervalSeconds = Math.min(maxIntervalSeconds, intervalSeconds * 2);
+    }
+    nextRefreshAt = now + intervalSeconds * 1000;
+  }
+
+  private boolean isPushedWithinInterval(long now) {
+    return lastPushAt > 0 && now - lastPushAt < intervalSeconds * 1000;
+  }
+}
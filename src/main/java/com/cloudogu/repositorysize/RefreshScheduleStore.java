@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import sonia.scm.store.DataStore;
+import sonia.scm.store.DataStoreFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Persists the {@link RefreshSchedule} of each repository, so that the learned intervals survive restarts.
+ */
+@Singleton
+public class RefreshScheduleStore {
+
+  private static final String STORE_NAME = "repository-size-refresh";
+
+  private final DataStore<RefreshSchedule> store;
+  private final Set<String> deletedRepositoryIds = new HashSet<>();
+  private volatile Map<String, RefreshSchedule> cache;
+
+  @Inject
+  public RefreshScheduleStore(DataStoreFactory dataStoreFactory) {
+    this.store = dataStoreFactory.withType(RefreshSchedule.class).withName(STORE_NAME).build();
+  }
+
+  /**
+   * Returns the schedule of the repository, or creates an initial one which is due immediately.
+   */
+  public synchronized RefreshSchedule get(String repositoryId, long now, long minIntervalSeconds) {
+    return cache().computeIfAbsent(repositoryId, id -> RefreshSchedule.initial(id, now, minIntervalSeconds));
+  }
+
+  /**
+   * Modifies and persists the schedule of the repository. Updates for deleted repositories, e.g. by refreshes
+   * which were still running during the deletion, are ignored.
+   */
+  public synchronized void update(String repositoryId, long now, long minIntervalSeconds, Consumer<RefreshSchedule> modification) {
+    if (deletedRepositoryIds.contains(repositoryId)) {
+      return;
+    }
+    RefreshSchedule schedule = get(repositoryId, now, minIntervalSeconds);
+    modification.accept(schedule);
+    store.put(repositoryId, schedule);
+  }
+
+  public synchronized void remove(String repositoryId) {
+    deletedRepositoryIds.add(repositoryId);
+    store.remove(repositoryId);
+    cache().remove(repositoryId);
+  }
+
+  private Map<String, RefreshSchedule> cache() {
+    if (cache == null) {
+      cache = new ConcurrentHashMap<>(store.getAll());
+    }
+    return cache;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import com.github.legman.Subscribe;
+import sonia.scm.EagerSingleton;
+import sonia.scm.HandlerEventType;
+import sonia.scm.plugin.Extension;
+import sonia.scm.repository.NamespaceManager;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
+import sonia.scm.repository.RepositoryPermission;
+import sonia.scm.repository.RepositoryRole;
+import sonia.scm.repository.RepositoryRoleManager;
+import sonia.scm.web.security.AdministrationContext;
+
+import jakarta.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@Extension
+@EagerSingleton
+public class RepositoryDeletedListener {
+
+  private final RepositorySizeStore store;
+  private final RefreshScheduleStore scheduleStore;
+  private final Set<RepositorySizeProvider> providers;
+  private final RepositorySizeChangeLog changeLog;
+  private final AdministrationContext administrationContext;
+  private final NamespaceManager namespaceManager;
+  private final RepositoryRoleManager roleManager;
+
+  @Inject
+  public RepositoryDeletedListener(RepositorySizeStore store,
+                                   RefreshScheduleStore scheduleStore,
+                                   Set<RepositorySizeProvider> providers,
+                                   RepositorySizeChangeLog changeLog,
+                                   AdministrationContext administrationContext,
+                                   NamespaceManager namespaceManager,
+                                   RepositoryRoleManager roleManager) {
+    this.store = store;
+    this.scheduleStore = scheduleStore;
+    this.providers = providers;
+    this.changeLog = changeLog;
+    this.administrationContext = administrationContext;
+    this.namespaceManager = namespaceManager;
+    this.roleManager = roleManager;
+  }
+
+  @Subscribe
+  public void onDelete(RepositoryEvent event) {
+    if (event.getEventType() == HandlerEventType.DELETE) {
+      store.remove(event.getItem().getId());
+      scheduleStore.remove(event.getItem().getId());
+      providers.forEach(provider -> provider.forget(event.getItem()));
+      changeLog.recordDeletion(event.getItem(), readersOf(event.getItem()));
+    }
+  }
+
+  private RepositorySizeChangeLog.Readers readersOf(Repository repository) {
+    Set<String> users = new HashSet<>();
+    Set<String> groups = new HashSet<>();
+    administrationContext.runAsAdmin(() -> {
+      List<RepositoryPermission> permissions = new ArrayList<>(repository.getPermissions());
+      namespaceManager.get(repository.getNamespace())
+        .ifPresent(namespace -> permissions.addAll(namespace.getPermissions()));
+      for (RepositoryPermission permission : permissions) {
+        if (!grantsPull(permission)) {
+          continue;
+        }
+        if (permission.isGroupPermission()) {
+          groups.add(permission.getName());
+        } else {
+          users.add(permission.getName());
+        }
+      }
+    });
+    return new RepositorySizeChangeLog.Readers(Set.copyOf(users), Set.copyOf(groups));
+  }
+
+  private boolean grantsPull(RepositoryPermission permission) {
+    Collection<String> verbs = permission.getVerbs();
+    if (permission.getRole() != null) {
+      RepositoryRole role = roleManager.get(permission.getRole());
+      verbs = role == null ? List.of() : role.getVerbs();
+    }
+    return verbs.contains("*") || verbs.contains("pull");
+  }
+}
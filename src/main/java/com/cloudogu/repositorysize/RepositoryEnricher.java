@@ -35,10 +35,14 @@ import jakarta.inject.Provider;
 public class RepositoryEnricher implements HalEnricher {
 
   private final Provider<ScmPathInfoStore> storeProvider;
+  private final RepositorySizeService sizeService;
+  private final RepositorySizeConfig config;
 
   @Inject
-  public RepositoryEnricher(Provider<ScmPathInfoStore> storeProvider) {
+  public RepositoryEnricher(Provider<ScmPathInfoStore> storeProvider, RepositorySizeService sizeService, RepositorySizeConfig config) {
     this.storeProvider = storeProvider;
+    this.sizeService = sizeService;
+    this.config = config;
   }
 
   @Override
@@ -47,6 +51,11 @@ public class RepositoryEnricher implements HalEnricher {
     if (RepositoryPermissions.pull().isPermitted(repository)) {
       LinkBuilder linkBuilder = new LinkBuilder(storeProvider.get().get(), RepositorySizeResource.class);
       appender.appendLink("size", linkBuilder.method("getRepositorySize").parameters(repository.getNamespace(), repository.getName()).href());
+      // only sizes which are already known are embedded, the enricher must never start a calculation
+      if (config.isEmbedInRepository()) {
+        sizeService.getLastCalculated(repository)
+          .ifPresent(snapshot -> appender.appendEmbedded("repositorySize", sizeService.createDto(repository, snapshot)));
+      }
     }
   }
 }
@@ -16,45 +16,249 @@
 
 package com.cloudogu.repositorysize;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.plugin.Extension;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryLocationResolver;
 
 import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
 import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class RepositorySizeCalculator {
+/**
+ * Calculates the size of a repository by categories. The size of a category is taken from the first
+ * {@link RepositorySizeProvider} which is responsible for it, otherwise the directories of the category are
+ * walked. Concurrent calculations for the same repository and category are coalesced, so that all callers share
+ * the result of a single calculation. Queued refreshes are cancelled when the servlet context is destroyed.
+ */
+@Extension
+@Singleton
+public class RepositorySizeCalculator implements ServletContextListener {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RepositorySizeCalculator.class);
 
+  private static final String DATA = "data";
   private static final String STORE = "store";
   private static final String BLOB = "blob";
+  private static final String LFS = "git-lfs";
+  private static final String EXPORT = "repository-export";
+  private static final String WORK = "work";
 
   private final RepositoryLocationResolver locationResolver;
+  private final RepositorySizeConfig config;
+  private final Set<RepositorySizeProvider> providers;
+  private final Executor backgroundExecutor;
+  private final ConcurrentMap<ScanKey, Scan> scans = new ConcurrentHashMap<>();
 
   @Inject
-  public RepositorySizeCalculator(RepositoryLocationResolver locationResolver) {
+  public RepositorySizeCalculator(RepositoryLocationResolver locationResolver, RepositorySizeConfig config, Set<RepositorySizeProvider> providers) {
+    this(locationResolver, config, providers, Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "RepositorySizeRefresh");
+      thread.setDaemon(true);
+      return thread;
+    }));
+  }
+
+  RepositorySizeCalculator(RepositoryLocationResolver locationResolver, RepositorySizeConfig config, Set<RepositorySizeProvider> providers, Executor backgroundExecutor) {
     this.locationResolver = locationResolver;
+    this.config = config;
+    this.providers = providers;
+    this.backgroundExecutor = backgroundExecutor;
   }
 
   public double getRepoSize(Repository repository) {
-    String dirPath = locationResolver.forClass(Path.class).getLocation(repository.getId()).resolve("data").toString();
-
-    return new DirSize(dirPath).inBytes();
+    return calculate(repository, SizeCategory.REPOSITORY).getSizeInBytes();
   }
 
   public double getStoreSize(Repository repository) {
-    String repoPath = locationResolver.forClass(Path.class).getLocation(repository.getId()).resolve(STORE).toString();
-
-    return new DirSize(repoPath).inBytes();
+    return calculate(repository, SizeCategory.STORE).getSizeInBytes();
   }
 
   public double getLfsSize(Repository repository) {
-    String repoLFSPath = locationResolver.forClass(Path.class).getLocation(repository.getId()).resolve(STORE).resolve(BLOB).resolve("git-lfs").toString();
-    return new DirSize(repoLFSPath).inBytes();
+    return calculate(repository, SizeCategory.LFS).getSizeInBytes();
   }
 
   public double getTempSize(Repository repository) {
-    String repoExportPath = locationResolver.forClass(Path.class).getLocation(repository.getId()).resolve(STORE).resolve(BLOB).resolve("repository-export").toString();
-    String repoWorkDirPath = locationResolver.forClass(Path.class).getLocation(repository.getId()).resolve("work").toString();
+    return calculate(repository, SizeCategory.TEMP).getSizeInBytes();
+  }
+
+  /**
+   * Calculates the size of the given category in the calling thread. If a calculation for the same repository
+   * and category is already running, its result is awaited instead. A refresh which is still queued in the
+   * background is taken over, so interactive requests never wait for the background queue.
+   */
+  public CategorySize calculate(Repository repository, SizeCategory category) {
+    Scan scan = register(repository, category);
+    scan.run();
+    return scan.join();
+  }
+
+  /**
+   * Queues a refresh of the given category, which is calculated by a single background thread.
+   */
+  public CompletableFuture<CategorySize> scheduleRefresh(Repository repository, SizeCategory category) {
+    Scan scan = register(repository, category);
+    backgroundExecutor.execute(scan::run);
+    return scan.result;
+  }
+
+  /**
+   * Awaits the calculations which are already running for all given categories of the repository. This never
+   * starts a walk and never takes over a queued refresh. If any of the categories is not being calculated right
+   * now, the optional is empty.
+   */
+  public Optional<Map<SizeCategory, CategorySize>> joinRunning(Repository repository, Set<SizeCategory> categories) {
+    Map<SizeCategory, Scan> running = new EnumMap<>(SizeCategory.class);
+    for (SizeCategory category : categories) {
+      Scan scan = scans.get(new ScanKey(repository.getId(), category));
+      if (scan == null || !scan.started.get()) {
+        return Optional.empty();
+      }
+      running.put(category, scan);
+    }
+    Map<SizeCategory, CategorySize> sizes = new EnumMap<>(SizeCategory.class);
+    running.forEach((category, scan) -> sizes.put(category, scan.join()));
+    return Optional.of(sizes);
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent servletContextEvent) {
+    // queued refreshes will never run, so their callers must not wait for them
+    scans.values().forEach(Scan::cancel);
+    if (backgroundExecutor instanceof ExecutorService executorService) {
+      executorService.shutdown();
+    }
+  }
+
+  private Scan register(Repository repository, SizeCategory category) {
+    return scans.computeIfAbsent(new ScanKey(repository.getId(), category), key -> new Scan(key, repository));
+  }
+
+  private CategorySize walk(Repository repository, SizeCategory category) {
+    Path location = locationResolver.forClass(Path.class).getLocation(repository.getId());
+
+    RepositorySizeScanEvent event = new RepositorySizeScanEvent();
+    event.begin();
+    event.repositoryId = repository.getId();
+    event.category = category.name();
+    for (RepositorySizeProvider provider : providers) {
+      Optional<CategorySize> providedSize = provider.calculate(repository, category, location, config.getLargestFilesLimit());
+      if (providedSize.isPresent()) {
+        WalkStatistics walked = providedSize.get().getWalked();
+        event.files = walked.getFiles();
+        event.directories = walked.getDirectories();
+        event.fileSystemTime = walked.getFileSystemNanos();
+        event.bytes = Math.max(0, (long) providedSize.get().getSizeInBytes());
+        event.errors = providedSize.get().getErrorCount();
+        event.commit();
+        logErrors(repository, category, providedSize.get().getErrors());
+        return providedSize.get();
+      }
+    }
+
+    LargestFiles largestFiles = new LargestFiles(config.getLargestFilesLimit(), location, category);
+    double size = 0;
+    ScanErrors errors = ScanErrors.NONE;
+    WalkStatistics walked = WalkStatistics.NONE;
+    for (Path directory : directoriesOf(location, category)) {
+      DirSize dirSize = new DirSize(directory.toString(), largestFiles);
+      size += dirSize.inBytes();
+      errors = errors.plus(ScanErrors.of(dirSize));
+      walked = walked.plus(WalkStatistics.of(dirSize));
+      event.bytes += Math.max(0, (long) dirSize.inBytes());
+    }
+    event.files = walked.getFiles();
+    event.directories = walked.getDirectories();
+    event.fileSystemTime = walked.getFileSystemNanos();
+    event.errors = errors.getCount();
+    event.commit();
+    logErrors(repository, category, errors);
+    return new CategorySize(size, largestFiles.toList(), errors, walked);
+  }
+
+  // unreadable trees can fail for thousands of entries, so the merged errors are reported once per scan
+  private void logErrors(Repository repository, SizeCategory category, ScanErrors errors) {
+    if (errors.getCount() > 0) {
+      LOG.warn(
+        "could not read {} files or directories while calculating the {} size of {}, causes: {}, e.g. {}",
+        errors.getCount(), category, repository, errors.getByCause(), errors.getSamples()
+      );
+    }
+  }
+
+  private List<Path> directoriesOf(Path location, SizeCategory category) {
+    return switch (category) {
+      case REPOSITORY -> List.of(location.resolve(DATA));
+      case STORE -> List.of(location.resolve(STORE));
+      case LFS -> List.of(location.resolve(STORE).resolve(BLOB).resolve(LFS));
+      case TEMP -> List.of(location.resolve(STORE).resolve(BLOB).resolve(EXPORT), location.resolve(WORK));
+    };
+  }
+
+  private record ScanKey(String repositoryId, SizeCategory category) {
+  }
+
+  private class Scan {
+
+    private final ScanKey key;
+    private final Repository repository;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final CompletableFuture<CategorySize> result = new CompletableFuture<>();
+
+    Scan(ScanKey key, Repository repository) {
+      this.key = key;
+      this.repository = repository;
+    }
+
+    void run() {
+      if (!started.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        result.complete(walk(repository, key.category()));
+      } catch (Throwable e) {
+        // errors have to complete the result as well, otherwise all callers waiting for it would hang
+        result.completeExceptionally(e);
+      } finally {
+        scans.remove(key, this);
+      }
+    }
+
+    void cancel() {
+      if (started.compareAndSet(false, true)) {
+        result.cancel(false);
+        scans.remove(key, this);
+      }
+    }
 
-    return new DirSize(repoExportPath).inBytes() + new DirSize(repoWorkDirPath).inBytes();
+    CategorySize join() {
+      try {
+        return result.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException runtimeException) {
+          throw runtimeException;
+        }
+        if (e.getCause() instanceof Error error) {
+          throw error;
+        }
+        throw e;
+      }
+    }
   }
 }
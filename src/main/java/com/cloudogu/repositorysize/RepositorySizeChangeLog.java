@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import sonia.scm.repository.Repository;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Remembers which repository sizes have changed, so that clients can poll the changes since a token instead of
+ * reading all sizes again. The log is kept in memory and bounded. A token consists of an epoch, which is new after
+ * every restart, and a sequence number. Tokens of another epoch or older than the oldest remembered change
+ * require a full resync. A deletion remembers the users and groups which were allowed to pull the repository,
+ * because its permissions are gone afterwards.
+ */
+@Singleton
+public class RepositorySizeChangeLog {
+
+  private final String epoch = UUID.randomUUID().toString();
+  private final int capacity;
+  private final Deque<Change> changes = new ArrayDeque<>();
+  private long sequence;
+
+  @Inject
+  public RepositorySizeChangeLog(RepositorySizeConfig config) {
+    this.capacity = Math.max(1, config.getChangeLogCapacity());
+  }
+
+  public synchronized void recordChange(Repository repository) {
+    append(new Change(++sequence, repository.getId(), false, Readers.NONE));
+  }
+
+  public synchronized void recordDeletion(Repository repository, Readers readers) {
+    append(new Change(++sequence, repository.getId(), true, readers));
+  }
+
+  public synchronized String getCurrentToken() {
+    return epoch + "." + sequence;
+  }
+
+  /**
+   * Returns the latest change of every repository which has changed after the given token, or an empty optional
+   * if the changes since the token are not known.
+   */
+  public synchronized Optional<Changes> getChangesSince(String token) {
+    long since = parse(token);
+    long oldestKnown = changes.isEmpty() ? sequence + 1 : changes.getFirst().sequence();
+    if (since < 0 || since > sequence || since < oldestKnown - 1) {
+      return Optional.empty();
+    }
+    Map<String, Change> latest = new LinkedHashMap<>();
+    for (Change change : changes) {
+      if (change.sequence() > since) {
+        // keep the order of the latest change
+        latest.remove(change.repositoryId());
+        latest.put(change.repositoryId(), change);
+      }
+    }
+    return Optional.of(new Changes(List.copyOf(latest.values()), getCurrentToken()));
+  }
+
+  private void append(Change change) {
+    changes.addLast(change);
+    while (changes.size() > capacity) {
+      changes.removeFirst();
+    }
+  }
+
+  private long parse(String token) {
+    if (token == null || !token.startsWith(epoch + ".")) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(token.substring(epoch.length() + 1));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  public record Change(long sequence, String repositoryId, boolean deleted, Readers readers) {
+  }
+
+  /**
+   * The users and groups which were allowed to pull a repository before it has been deleted.
+   */
+  public record Readers(Set<String> users, Set<String> groups) {
+
+    static final Readers NONE = new Readers(Set.of(), Set.of());
+
+    boolean includes(String user, Collection<String> groupsOfUser) {
+      return users.contains(user) || groupsOfUser.stream().anyMatch(groups::contains);
+    }
+  }
+
+  public record Changes(List<Change> changes, String token) {
+  }
+}
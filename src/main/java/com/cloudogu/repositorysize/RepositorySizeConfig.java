@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import jakarta.inject.Singleton;
+
+/**
+ * Tuning options of the plugin. All values can be overridden with system properties,
+ * e.g. {@code -Dscm.repositorySize.largestFiles=50}.
+ */
+@Singleton
+public class RepositorySizeConfig {
+
+  static final String PREFIX = "scm.repositorySize.";
+
+  public int getLargestFilesLimit() {
+    return Integer.getInteger(PREFIX + "largestFiles", 20);
+  }
+
+  public int getMaxConcurrentFullScans() {
+    return Integer.getInteger(PREFIX + "maxConcurrentFullScans", 2);
+  }
+
+  public int getMaxConcurrentRepositoryScans() {
+    return Integer.getInteger(PREFIX + "maxConcurrentRepositoryScans", 4);
+  }
+
+  public int getRetryAfterSeconds() {
+    return Integer.getInteger(PREFIX + "retryAfterSeconds", 30);
+  }
+
+  /**
+   * How long a calculated size may be reused by lookups which prefer stored sizes.
+   */
+  public int getMaxAgeSeconds() {
+    return Integer.getInteger(PREFIX + "maxAgeSeconds", 3600);
+  }
+
+  /**
+   * The maximum number of repositories whose sizes may be requested with a single selection.
+   */
+  public int getMaxSelectedRepositories() {
+    return Integer.getInteger(PREFIX + "maxSelectedRepositories", 1000);
+  }
+
+  /**
+   * Whether the last calculated size should be embedded in the hal representation of repositories. This is
+   * disabled by default, because it enlarges every repository list.
+   */
+  public boolean isEmbedInRepository() {
+    return Boolean.parseBoolean(System.getProperty(PREFIX + "embedInRepository", "false"));
+  }
+
+  /**
+   * How sizes are exported as metrics: {@code repository} exports gauges for the largest repositories,
+   * {@code namespace} exports the sums per namespace and {@code none} disables the export.
+   */
+  public String getMetricsMode() {
+    return System.getProperty(PREFIX + "metrics.mode", "repository");
+  }
+
+  /**
+   * The maximum number of repositories exported as metrics in {@code repository} mode.
+   */
+  public int getMetricsLimit() {
+    return Integer.getInteger(PREFIX + "metrics.limit", 100);
+  }
+
+  /**
+   * Whether repository sizes are refreshed in the background, depending on how often a repository changes.
+   */
+  public boolean isAdaptiveRefreshEnabled() {
+    return Boolean.parseBoolean(System.getProperty(PREFIX + "refresh.enabled", "true"));
+  }
+
+  public long getMinRefreshIntervalSeconds() {
+    return Long.getLong(PREFIX + "refresh.minIntervalSeconds", 600);
+  }
+
+  public long getMaxRefreshIntervalSeconds() {
+    return Long.getLong(PREFIX + "refresh.maxIntervalSeconds", 7 * 24 * 3600L);
+  }
+
+  /**
+   * The maximum number of background refreshes pending at a time. At most this many repositories are queued per minute.
+   */
+  public int getRefreshBatchSize() {
+    return Integer.getInteger(PREFIX + "refresh.batchSize", 10);
+  }
+
+  /**
+   * The number of size changes remembered for the change feed, clients which fall further behind have to resync.
+   */
+  public int getChangeLogCapacity() {
+    return Integer.getInteger(PREFIX + "changes.capacity", 10000);
+  }
+}
@@ -16,23 +16,32 @@
 
 package com.cloudogu.repositorysize;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import de.otto.edison.hal.HalRepresentation;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
+
 @AllArgsConstructor
 @NoArgsConstructor
 @Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @SuppressWarnings("java:S2160") // we don't need equals here
 public class RepositorySizeDto extends HalRepresentation {
   private String namespace;
   private String name;
-  private double totalSizeInBytes;
-  private double repoSizeInBytes;
-  private double storeSizeInBytes;
-  private double lfsSizeInBytes;
-  private double tempSizeInBytes;
+  // sizes which were not selected by the caller are null and omitted
+  private Double totalSizeInBytes;
+  private Double repoSizeInBytes;
+  private Double storeSizeInBytes;
+  private Double lfsSizeInBytes;
+  private Double tempSizeInBytes;
+  // number of files which could not be read, the sizes are a lower bound if this is not zero
+  private Long errorCount;
+  // when the sizes were calculated, stored sizes may be outdated
+  private Instant calculatedAt;
 }
 
 
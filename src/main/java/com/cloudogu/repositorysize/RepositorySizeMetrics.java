@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import sonia.scm.plugin.Extension;
+import sonia.scm.schedule.Scheduler;
+import sonia.scm.schedule.Task;
+
+import jakarta.inject.Inject;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Exports the last calculated repository sizes as gauges. The gauges are rebuilt from the in-memory
+ * snapshots once a minute, so scraping the metrics never causes any filesystem access.
+ * To limit the number of time series, only the largest repositories are exported, or the sizes are
+ * summed up by namespace.
+ */
+@Extension
+public class RepositorySizeMetrics implements ServletContextListener {
+
+  static final String METRIC = "scm.repository.size";
+
+  private static final String UPDATE_EXPRESSION = "0 * * * * ?";
+  private static final String MODE_NAMESPACE = "namespace";
+  private static final String MODE_NONE = "none";
+
+  private static final Map<String, ToDoubleFunction<RepositorySizeSnapshot>> CATEGORIES = new LinkedHashMap<>();
+
+  static {
+    CATEGORIES.put("total", RepositorySizeSnapshot::getTotalSizeInBytes);
+    CATEGORIES.put("repository", RepositorySizeSnapshot::getRepoSizeInBytes);
+    CATEGORIES.put("store", RepositorySizeSnapshot::getStoreSizeInBytes);
+    CATEGORIES.put("lfs", RepositorySizeSnapshot::getLfsSizeInBytes);
+    CATEGORIES.put("temp", RepositorySizeSnapshot::getTempSizeInBytes);
+  }
+
+  private final RepositorySizeStore store;
+  private final RepositorySizeConfig config;
+  private final Scheduler scheduler;
+  private final MultiGauge gauge;
+
+  private Task task;
+
+  @Inject
+  public RepositorySizeMetrics(MeterRegistry registry, RepositorySizeStore store, RepositorySizeConfig config, Scheduler scheduler) {
+    this.store = store;
+    this.config = config;
+    this.scheduler = scheduler;
+    this.gauge = MultiGauge.builder(METRIC)
+      .description("Last calculated size of repositories by categories")
+      .baseUnit(BaseUnits.BYTES)
+      .register(registry);
+  }
+
+  @Override
+  public void contextInitialized(ServletContextEvent servletContextEvent) {
+    if (!MODE_NONE.equals(config.getMetricsMode())) {
+      task = scheduler.schedule(UPDATE_EXPRESSION, this::update);
+    }
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent servletContextEvent) {
+    if (task != null) {
+      task.cancel();
+    }
+  }
+
+  void update() {
+    Collection<RepositorySizeSnapshot> snapshots = store.getAll();
+    if (MODE_NAMESPACE.equals(config.getMetricsMode())) {
+      gauge.register(namespaceRows(snapshots), true);
+    } else {
+      gauge.register(repositoryRows(snapshots), true);
+    }
+  }
+
+  private List<MultiGauge.Row<?>> repositoryRows(Collection<RepositorySizeSnapshot> snapshots) {
+    return snapshots.stream()
+      .sorted(Comparator.comparingDouble(RepositorySizeSnapshot::getTotalSizeInBytes).reversed())
+      .limit(config.getMetricsLimit())
+      .flatMap(snapshot -> CATEGORIES.entrySet().stream()
+        .filter(category -> category.getValue().applyAsDouble(snapshot) >= 0)
+        .map(category -> MultiGauge.Row.of(
+          Tags.of("namespace", snapshot.getNamespace(), "repository", snapshot.getName(), "category", category.getKey()),
+          category.getValue().applyAsDouble(snapshot)
+        )))
+      .collect(Collectors.<MultiGauge.Row<?>>toList());
+  }
+
+  private List<MultiGauge.Row<?>> namespaceRows(Collection<RepositorySizeSnapshot> snapshots) {
+    Map<String, List<RepositorySizeSnapshot>> byNamespace = snapshots.stream()
+      .collect(Collectors.groupingBy(RepositorySizeSnapshot::getNamespace));
+    return byNamespace.entrySet().stream()
+      .flatMap(namespace -> CATEGORIES.entrySet().stream()
+        .map(category -> MultiGauge.Row.of(
+          Tags.of("namespace", namespace.getKey(), "category", category.getKey()),
+          namespace.getValue().stream()
+            .mapToDouble(category.getValue())
+            .filter(size -> size >= 0)
+            .sum()
+        )))
+      .collect(Collectors.<MultiGauge.Row<?>>toList());
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import sonia.scm.plugin.ExtensionPoint;
+import sonia.scm.repository.Repository;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Extension point for plugins which know the size of their storage better or cheaper than a walk over
+ * every file, e.g. vcs specific layouts or blob stores which track their totals. The first provider
+ * returning a size for a category wins, if no provider is responsible the directories are walked.
+ * <p>
+ * The order in which providers are asked is undefined, so at most one provider should be responsible for a
+ * repository and category.
+ * <p>
+ * The categories overlap: {@link SizeCategory#STORE} is the whole {@code store} directory and has to include the
+ * subtrees of {@link SizeCategory#LFS} and of the export part of {@link SizeCategory#TEMP}. The metadata size is
+ * derived as {@code STORE - LFS - TEMP}, so a provider which leaves them out of {@code STORE} produces wrong or
+ * even negative metadata sizes.
+ */
+@ExtensionPoint
+public interface RepositorySizeProvider {
+
+  /**
+   * Calculates the size of the given category.
+   *
+   * @param repository        the repository
+   * @param category          the requested category
+   * @param location          the root directory of the repository, which contains {@code data}, {@code store}
+   *                          and {@code work}
+   * @param largestFilesLimit number of largest files which should be reported, may be ignored
+   * @return the size or an empty optional, if this provider is not responsible for the repository or category;
+   * the size should carry the {@link ScanErrors} and {@link WalkStatistics} of the directories which have been
+   * walked for it, so that they are reported like those of a full walk
+   */
+  Optional<CategorySize> calculate(Repository repository, SizeCategory category, Path location, int largestFilesLimit);
+
+  /**
+   * Called after a repository has been deleted, so that cached state of the repository can be dropped.
+   */
+  default void forget(Repository repository) {
+  }
+}
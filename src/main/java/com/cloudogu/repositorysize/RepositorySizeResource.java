@@ -18,6 +18,7 @@ package com.cloudogu.repositorysize;
 
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -34,7 +35,13 @@ import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Function;
 
 @OpenAPIDefinition(tags = {
   @Tag(name = "Repository Sizes", description = "Repository sizes endpoints")
@@ -42,13 +49,15 @@ import jakarta.ws.rs.core.MediaType;
 @Path("v2/repository-size")
 public class RepositorySizeResource {
 
-  private final RepositorySizeCalculator sizeCalculator;
+  private final RepositorySizeService sizeService;
   private final RepositoryManager repositoryManager;
+  private final ScanAdmission admission;
 
   @Inject
-  RepositorySizeResource(RepositorySizeCalculator sizeCalculator, RepositoryManager repositoryManager) {
-    this.sizeCalculator = sizeCalculator;
+  RepositorySizeResource(RepositorySizeService sizeService, RepositoryManager repositoryManager, ScanAdmission admission) {
+    this.sizeService = sizeService;
     this.repositoryManager = repositoryManager;
+    this.admission = admission;
   }
 
   @GET
@@ -67,8 +76,10 @@ public class RepositorySizeResource {
       schema = @Schema(implementation = RepositorySizeDto.class)
     )
   )
+  @ApiResponse(responseCode = "400", description = "unknown size field")
   @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
   @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the \"pullRepository\" privilege")
+  @ApiResponse(responseCode = "429", description = "too many size calculations are running, retry after the seconds given in the \"Retry-After\" header")
   @ApiResponse(
     responseCode = "500",
     description = "internal server error",
@@ -78,23 +89,78 @@ public class RepositorySizeResource {
     )
   )
   @Path("{namespace}/{name}")
-  public RepositorySizeDto getRepositorySize(@PathParam("namespace") String namespace, @PathParam("name") String name) {
+  public Response getRepositorySize(
+    @PathParam("namespace") String namespace,
+    @PathParam("name") String name,
+    @Parameter(description = "Comma separated list of the size fields to calculate, all fields if omitted")
+    @QueryParam("fields") String fieldNames
+  ) {
     Repository repository = repositoryManager.get(new NamespaceAndName(namespace, name));
     RepositoryPermissions.pull().check(repository);
 
-    double repoSize = sizeCalculator.getRepoSize(repository);
-    double lfsSize = sizeCalculator.getLfsSize(repository);
-    double tempSize = sizeCalculator.getTempSize(repository);
-    double storeSize = sizeCalculator.getStoreSize(repository) - lfsSize - tempSize;
+    Set<SizeField> fields;
+    try {
+      fields = SizeField.parse(fieldNames);
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+    }
+    return calculateAdmitted(repository, fields, snapshot -> sizeService.createDto(repository, snapshot, fields));
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(
+    summary = "Largest files of repository",
+    description = "Returns the largest files of the repository, as found by the last size calculation.",
+    tags = "Repository Sizes",
+    operationId = "repo_sizes_get_largest_files"
+  )
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = LargestFilesDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the \"pullRepository\" privilege")
+  @ApiResponse(responseCode = "429", description = "too many size calculations are running, retry after the seconds given in the \"Retry-After\" header")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  @Path("{namespace}/{name}/largest-files")
+  public Response getLargestFiles(@PathParam("namespace") String namespace, @PathParam("name") String name) {
+    Repository repository = repositoryManager.get(new NamespaceAndName(namespace, name));
+    RepositoryPermissions.pull().check(repository);
 
-    return new RepositorySizeDto(
+    Function<RepositorySizeSnapshot, LargestFilesDto> toDto = snapshot -> new LargestFilesDto(
       namespace,
       name,
-      repoSize + storeSize + lfsSize + tempSize,
-      repoSize,
-      storeSize,
-      lfsSize,
-      tempSize
+      Instant.ofEpochMilli(snapshot.getCalculatedAt()),
+      snapshot.getLargestFiles()
     );
+    return sizeService.getLastCalculated(repository)
+      .map(snapshot -> Response.ok(toDto.apply(snapshot)).build())
+      .orElseGet(() -> calculateAdmitted(repository, EnumSet.allOf(SizeField.class), toDto));
+  }
+
+  private Response calculateAdmitted(Repository repository, Set<SizeField> fields, Function<RepositorySizeSnapshot, ?> toEntity) {
+    if (admission.tryAcquireRepositoryScan()) {
+      try {
+        return Response.ok(toEntity.apply(sizeService.calculate(repository, fields))).build();
+      } finally {
+        admission.releaseRepositoryScan();
+      }
+    }
+    // a caller without a free slot may only join calculations which are already running for all needed categories
+    return sizeService.joinRunningCalculation(repository, fields)
+      .map(snapshot -> Response.ok(toEntity.apply(snapshot)).build())
+      .orElseGet(admission::rejected);
   }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for the calculation of one {@link SizeCategory} of a repository.
+ */
+@Name("com.cloudogu.repositorysize.RepositorySizeScan")
+@Label("Repository Size Scan")
+@Category({"SCM-Manager", "Repository Size"})
+@Description("Calculation of the size of a repository category")
+class RepositorySizeScanEvent extends Event {
+
+  @Label("Repository Id")
+  String repositoryId;
+
+  @Label("Category")
+  String category;
+
+  @Label("Files")
+  long files;
+
+  @Label("Directories")
+  long directories;
+
+  @Label("Size")
+  @DataAmount
+  long bytes;
+
+  @Label("I/O Errors")
+  long errors;
+
+  @Label("File System Time")
+  @Description("Time spent waiting for the file system, outside of the size accounting")
+  @Timespan(Timespan.NANOSECONDS)
+  long fileSystemTime;
+}
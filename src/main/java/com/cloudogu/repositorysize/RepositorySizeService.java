@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import sonia.scm.repository.Repository;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calculates the sizes of a repository by categories and persists the result in the {@link RepositorySizeStore}.
+ * Only one complete calculation per repository runs at a time, further callers share its result.
+ */
+@Singleton
+public class RepositorySizeService {
+
+  private final RepositorySizeCalculator calculator;
+  private final RepositorySizeStore store;
+  private final RepositorySizeConfig config;
+  private final RepositorySizeChangeLog changeLog;
+  private final ConcurrentMap<String, CompletableFuture<RepositorySizeSnapshot>> calculations = new ConcurrentHashMap<>();
+
+  @Inject
+  public RepositorySizeService(RepositorySizeCalculator calculator, RepositorySizeStore store, RepositorySizeConfig config, RepositorySizeChangeLog changeLog) {
+    this.calculator = calculator;
+    this.store = store;
+    this.config = config;
+    this.changeLog = changeLog;
+  }
+
+  /**
+   * Calculates all categories of the repository. The calculation is registered before the first category starts,
+   * so that callers arriving while any of the categories is calculated join it instead of starting another one.
+   */
+  public RepositorySizeSnapshot calculate(Repository repository) {
+    CompletableFuture<RepositorySizeSnapshot> calculation = new CompletableFuture<>();
+    CompletableFuture<RepositorySizeSnapshot> running = calculations.putIfAbsent(repository.getId(), calculation);
+    if (running != null) {
+      return join(running);
+    }
+    try {
+      calculation.complete(store(
+        repository,
+        calculator.calculate(repository, SizeCategory.REPOSITORY),
+        calculator.calculate(repository, SizeCategory.LFS),
+        calculator.calculate(repository, SizeCategory.TEMP),
+        calculator.calculate(repository, SizeCategory.STORE)
+      ));
+    } catch (Throwable e) {
+      // joined callers must not wait forever, whatever went wrong
+      calculation.completeExceptionally(e);
+    } finally {
+      calculations.remove(repository.getId(), calculation);
+    }
+    return join(calculation);
+  }
+
+  private RepositorySizeSnapshot join(CompletableFuture<RepositorySizeSnapshot> calculation) {
+    try {
+      return calculation.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      if (e.getCause() instanceof Error error) {
+        throw error;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Queues a complete calculation in the background. Interactive calculations of the same repository take
+   * precedence and share their result with the queued refresh.
+   */
+  public CompletableFuture<RepositorySizeSnapshot> refreshInBackground(Repository repository) {
+    CompletableFuture<CategorySize> repoSize = calculator.scheduleRefresh(repository, SizeCategory.REPOSITORY);
+    CompletableFuture<CategorySize> lfsSize = calculator.scheduleRefresh(repository, SizeCategory.LFS);
+    CompletableFuture<CategorySize> tempSize = calculator.scheduleRefresh(repository, SizeCategory.TEMP);
+    CompletableFuture<CategorySize> storeSize = calculator.scheduleRefresh(repository, SizeCategory.STORE);
+    return CompletableFuture.allOf(repoSize, lfsSize, tempSize, storeSize)
+      .thenApply(ignored -> store(repository, repoSize.join(), lfsSize.join(), tempSize.join(), storeSize.join()));
+  }
+
+  private RepositorySizeSnapshot store(Repository repository, CategorySize repoSize, CategorySize lfsSize, CategorySize tempSize, CategorySize storeSize) {
+    Map<SizeCategory, CategorySize> sizes = new EnumMap<>(SizeCategory.class);
+    sizes.put(SizeCategory.REPOSITORY, repoSize);
+    sizes.put(SizeCategory.LFS, lfsSize);
+    sizes.put(SizeCategory.TEMP, tempSize);
+    sizes.put(SizeCategory.STORE, storeSize);
+    RepositorySizeSnapshot snapshot = createSnapshot(repository, sizes);
+    Optional<RepositorySizeSnapshot> previous = store.get(repository.getId());
+    boolean stored = store.put(repository.getId(), snapshot);
+    if (stored && previous.map(before -> !hasSameSizes(before, snapshot)).orElse(true)) {
+      changeLog.recordChange(repository);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Creates a snapshot of the given category sizes. Sizes of missing categories and of the sizes derived from
+   * them are {@link Double#NaN}.
+   */
+  private RepositorySizeSnapshot createSnapshot(Repository repository, Map<SizeCategory, CategorySize> sizes) {
+    LargestFiles largestFiles = new LargestFiles(config.getLargestFilesLimit());
+    long errorCount = 0;
+    for (CategorySize size : sizes.values()) {
+      largestFiles.addAll(size.getLargestFiles());
+      errorCount += size.getErrorCount();
+    }
+
+    double repoSize = sizeOf(sizes, SizeCategory.REPOSITORY);
+    double lfsSize = sizeOf(sizes, SizeCategory.LFS);
+    double tempSize = sizeOf(sizes, SizeCategory.TEMP);
+    double metadataSize = sizeOf(sizes, SizeCategory.STORE) - lfsSize - tempSize;
+    return new RepositorySizeSnapshot(
+      repository.getNamespace(),
+      repository.getName(),
+      repoSize + metadataSize + lfsSize + tempSize,
+      repoSize,
+      metadataSize,
+      lfsSize,
+      tempSize,
+      largestFiles.toList(),
+      System.currentTimeMillis(),
+      errorCount
+    );
+  }
+
+  private double sizeOf(Map<SizeCategory, CategorySize> sizes, SizeCategory category) {
+    CategorySize size = sizes.get(category);
+    return size == null ? Double.NaN : size.getSizeInBytes();
+  }
+
+  private boolean hasSameSizes(RepositorySizeSnapshot before, RepositorySizeSnapshot after) {
+    return Double.compare(before.getTotalSizeInBytes(), after.getTotalSizeInBytes()) == 0
+      && Double.compare(before.getRepoSizeInBytes(), after.getRepoSizeInBytes()) == 0
+      && Double.compare(before.getStoreSizeInBytes(), after.getStoreSizeInBytes()) == 0
+      && Double.compare(before.getLfsSizeInBytes(), after.getLfsSizeInBytes()) == 0
+      && Double.compare(before.getTempSizeInBytes(), after.getTempSizeInBytes()) == 0;
+  }
+
+  /**
+   * Calculates only the categories needed for the given fields. Sizes of other fields are {@link Double#NaN}.
+   * Only a calculation of all fields is persisted.
+   */
+  public RepositorySizeSnapshot calculate(Repository repository, Set<SizeField> fields) {
+    Set<SizeCategory> categories = SizeField.categoriesOf(fields);
+    if (categories.containsAll(EnumSet.allOf(SizeCategory.class))) {
+      return calculate(repository);
+    }
+    Map<SizeCategory, CategorySize> sizes = new EnumMap<>(SizeCategory.class);
+    for (SizeCategory category : categories) {
+      sizes.put(category, calculator.calculate(repository, category));
+    }
+    return createSnapshot(repository, sizes);
+  }
+
+  /**
+   * Awaits a calculation which is already running for the repository, without starting or taking over a
+   * calculation. A running complete calculation serves all fields, otherwise the categories needed for the given
+   * fields have to be calculated right now. The result is persisted only by the running calculation. If nothing
+   * suitable is running, the optional is empty.
+   */
+  public Optional<RepositorySizeSnapshot> joinRunningCalculation(Repository repository, Set<SizeField> fields) {
+    CompletableFuture<RepositorySizeSnapshot> running = calculations.get(repository.getId());
+    if (running != null) {
+      return Optional.of(join(running));
+    }
+    return calculator.joinRunning(repository, SizeField.categoriesOf(fields))
+      .map(sizes -> createSnapshot(repository, sizes));
+  }
+
+  public Optional<RepositorySizeSnapshot> getLastCalculated(Repository repository) {
+    return store.get(repository.getId());
+  }
+
+  /**
+   * Returns the last calculated size, if it is not older than the configured maximum age.
+   */
+  public Optional<RepositorySizeSnapshot> getRecentlyCalculated(Repository repository) {
+    long oldest = System.currentTimeMillis() - config.getMaxAgeSeconds() * 1000L;
+    return getLastCalculated(repository)
+      .filter(snapshot -> snapshot.getCalculatedAt() >= oldest);
+  }
+
+  /**
+   * Returns the repositories whose stored size has changed after the given token, or an empty optional if the
+   * changes are not known and all sizes have to be read again.
+   */
+  public Optional<RepositorySizeChangeLog.Changes> getChangesSince(String token) {
+    return changeLog.getChangesSince(token);
+  }
+
+  public String getCurrentChangeToken() {
+    return changeLog.getCurrentToken();
+  }
+
+  public RepositorySizeDto createDto(Repository repository, RepositorySizeSnapshot snapshot) {
+    return createDto(repository, snapshot, EnumSet.allOf(SizeField.class));
+  }
+
+  public RepositorySizeDto createDto(Repository repository, RepositorySizeSnapshot snapshot, Set<SizeField> fields) {
+    return new RepositorySizeDto(
+      repository.getNamespace(),
+      repository.getName(),
+      select(fields, SizeField.TOTAL, snapshot.getTotalSizeInBytes()),
+      select(fields, SizeField.REPOSITORY, snapshot.getRepoSizeInBytes()),
+      select(fields, SizeField.STORE, snapshot.getStoreSizeInBytes()),
+      select(fields, SizeField.LFS, snapshot.getLfsSizeInBytes()),
+      select(fields, SizeField.TEMP, snapshot.getTempSizeInBytes()),
+      snapshot.getErrorCount(),
+      Instant.ofEpochMilli(snapshot.getCalculatedAt())
+    );
+  }
+
+  private Double select(Set<SizeField> fields, SizeField field, double size) {
+    return fields.contains(field) ? size : null;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The last calculated size of a repository, as it is persisted in the {@link RepositorySizeStore}.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@XmlRootElement(name = "repository-size")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class RepositorySizeSnapshot {
+  private String namespace;
+  private String name;
+  private double totalSizeInBytes;
+  private double repoSizeInBytes;
+  private double storeSizeInBytes;
+  private double lfsSizeInBytes;
+  private double tempSizeInBytes;
+  @XmlElement(name = "largest-file")
+  private List<LargestFile> largestFiles = new ArrayList<>();
+  private long calculatedAt;
+  private long errorCount;
+}
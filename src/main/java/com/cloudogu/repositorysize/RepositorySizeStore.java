@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import sonia.scm.store.DataStore;
+import sonia.scm.store.DataStoreFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persists the last calculated size of each repository. All snapshots are read once and then kept in memory,
+ * so that lookups, e.g. while enriching repository lists, never hit the disk.
+ */
+@Singleton
+public class RepositorySizeStore {
+
+  private static final String STORE_NAME = "repository-size";
+
+  private final DataStore<RepositorySizeSnapshot> store;
+  private final Set<String> deletedRepositoryIds = ConcurrentHashMap.newKeySet();
+  private volatile Map<String, RepositorySizeSnapshot> cache;
+
+  @Inject
+  public RepositorySizeStore(DataStoreFactory dataStoreFactory) {
+    this.store = dataStoreFactory.withType(RepositorySizeSnapshot.class).withName(STORE_NAME).build();
+  }
+
+  public Optional<RepositorySizeSnapshot> get(String repositoryId) {
+    return Optional.ofNullable(cache().get(repositoryId));
+  }
+
+  public Collection<RepositorySizeSnapshot> getAll() {
+    return cache().values();
+  }
+
+  /**
+   * Stores the snapshot, unless the repository has been deleted in the meantime.
+   *
+   * @return {@code false} if the snapshot was dropped, because the repository has been deleted
+   */
+  public synchronized boolean put(String repositoryId, RepositorySizeSnapshot snapshot) {
+    if (deletedRepositoryIds.contains(repositoryId)) {
+      return false;
+    }
+    store.put(repositoryId, snapshot);
+    cache().put(repositoryId, snapshot);
+    return true;
+  }
+
+  /**
+   * Removes the size of a deleted repository. Results of calculations which are still running for the repository
+   * are dropped afterwards.
+   */
+  public synchronized void remove(String repositoryId) {
+    deletedRepositoryIds.add(repositoryId);
+    store.remove(repositoryId);
+    cache().remove(repositoryId);
+  }
+
+  private Map<String, RepositorySizeSnapshot> cache() {
+    Map<String, RepositorySizeSnapshot> snapshots = cache;
+    if (snapshots == null) {
+      synchronized (this) {
+        if (cache == null) {
+          cache = new ConcurrentHashMap<>(store.getAll());
+        }
+        snapshots = cache;
+      }
+    }
+    return snapshots;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of size scans which may run at the same time, so that a few reloads of the size
+ * overview cannot saturate the storage of the whole instance. Scans of all repositories and scans of single
+ * repositories have separate limits.
+ */
+@Singleton
+public class ScanAdmission {
+
+  private final Semaphore fullScans;
+  private final Semaphore repositoryScans;
+  private final int retryAfterSeconds;
+
+  @Inject
+  public ScanAdmission(RepositorySizeConfig config) {
+    this.fullScans = new Semaphore(config.getMaxConcurrentFullScans());
+    this.repositoryScans = new Semaphore(config.getMaxConcurrentRepositoryScans());
+    this.retryAfterSeconds = config.getRetryAfterSeconds();
+  }
+
+  public boolean tryAcquireFullScan() {
+    return fullScans.tryAcquire();
+  }
+
+  public void releaseFullScan() {
+    fullScans.release();
+  }
+
+  public boolean tryAcquireRepositoryScan() {
+    return repositoryScans.tryAcquire();
+  }
+
+  public void releaseRepositoryScan() {
+    repositoryScans.release();
+  }
+
+  /**
+   * Creates the response for a rejected scan, which tells the client when to try again.
+   */
+  public Response rejected() {
+    return Response.status(Response.Status.TOO_MANY_REQUESTS)
+      .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+      .build();
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Files and directories which could not be read while calculating a size. Unreadable trees can fail for
+ * thousands of entries, so the errors are only counted by the simple class name of the exception and kept with
+ * a few sample paths. The errors of all walks of a scan are merged and reported once.
+ */
+@AllArgsConstructor
+@Getter
+public class ScanErrors {
+
+  public static final ScanErrors NONE = new ScanErrors(0, Map.of(), List.of());
+
+  static final int SAMPLES = 5;
+
+  private final long count;
+  private final Map<String, Long> byCause;
+  private final List<String> samples;
+
+  public static ScanErrors of(DirSize dirSize) {
+    return new ScanErrors(dirSize.getErrorCount(), dirSize.getErrorsByCause(), dirSize.getErrorSamples());
+  }
+
+  public ScanErrors plus(ScanErrors other) {
+    if (other.count == 0) {
+      return this;
+    }
+    if (count == 0) {
+      return other;
+    }
+    Map<String, Long> mergedByCause = new TreeMap<>(byCause);
+    other.byCause.forEach((cause, errors) -> mergedByCause.merge(cause, errors, Long::sum));
+    List<String> mergedSamples = new ArrayList<>(samples);
+    other.samples.stream()
+      .limit(Math.max(0, SAMPLES - mergedSamples.size()))
+      .forEach(mergedSamples::add);
+    return new ScanErrors(count + other.count, Collections.unmodifiableMap(mergedByCause), List.copyOf(mergedSamples));
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The fields of a {@link RepositorySizeDto} which can be selected, together with the categories which have to
+ * be calculated for each of them.
+ */
+public enum SizeField {
+  TOTAL("totalSizeInBytes", EnumSet.allOf(SizeCategory.class)),
+  REPOSITORY("repoSizeInBytes", EnumSet.of(SizeCategory.REPOSITORY)),
+  // the metadata size is the store without lfs and temporary files
+  STORE("storeSizeInBytes", EnumSet.of(SizeCategory.STORE, SizeCategory.LFS, SizeCategory.TEMP)),
+  LFS("lfsSizeInBytes", EnumSet.of(SizeCategory.LFS)),
+  TEMP("tempSizeInBytes", EnumSet.of(SizeCategory.TEMP));
+
+  private final String fieldName;
+  private final Set<SizeCategory> categories;
+
+  SizeField(String fieldName, Set<SizeCategory> categories) {
+    this.fieldName = fieldName;
+    this.categories = categories;
+  }
+
+  public String getFieldName() {
+    return fieldName;
+  }
+
+  /**
+   * Parses a comma separated list of field names. An empty or missing list selects all fields.
+   *
+   * @throws IllegalArgumentException if one of the names is unknown
+   */
+  public static Set<SizeField> parse(String fieldNames) {
+    if (fieldNames == null || fieldNames.isBlank()) {
+      return EnumSet.allOf(SizeField.class);
+    }
+    Set<SizeField> fields = EnumSet.noneOf(SizeField.class);
+    for (String fieldName : fieldNames.split(",")) {
+      fields.add(byName(fieldName.trim()));
+    }
+    return fields;
+  }
+
+  public static Set<SizeCategory> categoriesOf(Set<SizeField> fields) {
+    Set<SizeCategory> categories = EnumSet.noneOf(SizeCategory.class);
+    fields.forEach(field -> categories.addAll(field.categories));
+    return categories;
+  }
+
+  private static SizeField byName(String fieldName) {
+    for (SizeField field : values()) {
+      if (field.fieldName.equals(fieldName)) {
+        return field;
+      }
+    }
+    throw new IllegalArgumentException("unknown size field: " + fieldName);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Writes a list of repository sizes either as an array of {@link RepositorySizeDto} objects or in the columnar
+ * format. The columnar format writes the field names only once and the sizes as exact integers:
+ * <pre>
+ * {"columns":["namespace","name","repoSizeInBytes","errorCount"],"rows":[["hitchhiker","HeartOfGold",42,0]]}
+ * </pre>
+ * Values which could not be calculated are written as {@code null}.
+ */
+class SizeListWriter {
+
+  private final JsonGenerator generator;
+  private final Set<SizeField> fields;
+  private final boolean columnar;
+
+  SizeListWriter(JsonGenerator generator, Set<SizeField> fields, boolean columnar) {
+    this.generator = generator;
+    this.fields = fields;
+    this.columnar = columnar;
+  }
+
+  void start() throws IOException {
+    if (columnar) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("columns");
+      generator.writeString("namespace");
+      generator.writeString("name");
+      for (SizeField field : fields) {
+        generator.writeString(field.getFieldName());
+      }
+      generator.writeString("errorCount");
+      generator.writeEndArray();
+      generator.writeArrayFieldStart("rows");
+    } else {
+      generator.writeStartArray();
+    }
+  }
+
+  void write(RepositorySizeDto dto) throws IOException {
+    if (!columnar) {
+      generator.writeObject(dto);
+      return;
+    }
+    generator.writeStartArray();
+    generator.writeString(dto.getNamespace());
+    generator.writeString(dto.getName());
+    for (SizeField field : fields) {
+      writeSize(valueOf(dto, field));
+    }
+    if (dto.getErrorCount() == null) {
+      generator.writeNull();
+    } else {
+      generator.writeNumber(dto.getErrorCount());
+    }
+    generator.writeEndArray();
+  }
+
+  void end() throws IOException {
+    generator.writeEndArray();
+    if (columnar) {
+      generator.writeEndObject();
+    }
+  }
+
+  private void writeSize(Double size) throws IOException {
+    if (size == null || size.isNaN() || size.isInfinite()) {
+      generator.writeNull();
+    } else {
+      // sizes are sums of file lengths, so they are integral
+      generator.writeNumber(size.longValue());
+    }
+  }
+
+  private Double valueOf(RepositorySizeDto dto, SizeField field) {
+    return switch (field) {
+      case TOTAL -> dto.getTotalSizeInBytes();
+      case REPOSITORY -> dto.getRepoSizeInBytes();
+      case STORE -> dto.getStoreSizeInBytes();
+      case LFS -> dto.getLfsSizeInBytes();
+      case TEMP -> dto.getTempSizeInBytes();
+    };
+  }
+}
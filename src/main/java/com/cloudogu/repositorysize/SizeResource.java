@@ -18,39 +18,71 @@ package com.cloudogu.repositorysize;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.Subject;
 import sonia.scm.api.v2.resources.ErrorDto;
+import sonia.scm.group.GroupCollector;
+import sonia.scm.repository.NamespaceAndName;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryManager;
 import sonia.scm.repository.RepositoryPermissions;
 import sonia.scm.web.VndMediaType;
 
 import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.CompletionCallback;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.StreamingOutput;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 @Path("v2/repository-size")
 public class SizeResource {
 
-  private final RepositorySizeCalculator sizeCalculator;
+  static final String COLUMNAR_MEDIA_TYPE = VndMediaType.PREFIX + "repositorySizes.columnar" + VndMediaType.SUFFIX;
+
+  private final RepositorySizeService sizeService;
   private final RepositoryManager repositoryManager;
   private final ObjectMapper objectMapper;
+  private final ScanAdmission admission;
+  private final RepositorySizeConfig config;
+  private final GroupCollector groupCollector;
 
   @Inject
-  public SizeResource(RepositorySizeCalculator sizeCalculator, RepositoryManager repositoryManager, ObjectMapper objectMapper) {
-    this.sizeCalculator = sizeCalculator;
+  public SizeResource(RepositorySizeService sizeService, RepositoryManager repositoryManager, ObjectMapper objectMapper, ScanAdmission admission, RepositorySizeConfig config, GroupCollector groupCollector) {
+    this.sizeService = sizeService;
     this.repositoryManager = repositoryManager;
     this.objectMapper = objectMapper;
+    this.admission = admission;
+    this.config = config;
+    this.groupCollector = groupCollector;
   }
 
   @GET
-  @Produces(MediaType.APPLICATION_JSON)
+  @Produces({MediaType.APPLICATION_JSON, COLUMNAR_MEDIA_TYPE})
   @Operation(
     summary = "Repositories sizes",
     description = "Returns a summary of the repo sizes for all repositories which the user may pull.",
@@ -60,11 +92,14 @@ public class SizeResource {
   @ApiResponse(
     responseCode = "200",
     description = "success",
-    content = @Content(
-      mediaType = MediaType.APPLICATION_JSON
-    )
+    content = {
+      @Content(mediaType = MediaType.APPLICATION_JSON),
+      @Content(mediaType = COLUMNAR_MEDIA_TYPE)
+    }
   )
+  @ApiResponse(responseCode = "400", description = "unknown size field")
   @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "429", description = "too many size calculations are running, retry after the seconds given in the \"Retry-After\" header")
   @ApiResponse(
     responseCode = "500",
     description = "internal server error",
@@ -74,35 +109,314 @@ public class SizeResource {
     )
   )
   @Path("")
-  public StreamingOutput getSizes() {
-    return output -> {
+  public void getSizes(
+    @Suspended AsyncResponse asyncResponse,
+    @Context HttpHeaders headers,
+    @Parameter(description = "Comma separated list of the size fields to calculate, all fields if omitted")
+    @QueryParam("fields") String fieldNames,
+    @Parameter(description = "Only repositories of this namespace")
+    @QueryParam("namespace") String namespace,
+    @Parameter(description = "Only repositories whose name matches this pattern, '*' and '?' may be used as wildcards")
+    @QueryParam("name") String namePattern
+  ) {
+    Set<SizeField> fields;
+    try {
+      fields = SizeField.parse(fieldNames);
+    } catch (IllegalArgumentException e) {
+      asyncResponse.resume(badRequest(e));
+      return;
+    }
+    Predicate<Repository> filter = createFilter(namespace, namePattern);
+    boolean columnar = isColumnarAccepted(headers);
+    if (!admission.tryAcquireFullScan()) {
+      asyncResponse.resume(admission.rejected());
+      return;
+    }
+    releaseFullScanOnCompletion(asyncResponse);
+    StreamingOutput streamingOutput = output -> {
       JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(output);
-      jsonGenerator.writeStartArray();
+      SizeListWriter writer = new SizeListWriter(jsonGenerator, fields, columnar);
+      writer.start();
       for (Repository repository : repositoryManager.getAll()) {
-        if (RepositoryPermissions.pull(repository.getId()).isPermitted()) {
-          jsonGenerator.writeObject(createDto(repository));
+        // the filter only needs the metadata of the repository and is therefore checked first
+        if (filter.test(repository) && RepositoryPermissions.pull(repository.getId()).isPermitted()) {
+          writer.write(sizeService.createDto(repository, sizeService.calculate(repository, fields), fields));
           jsonGenerator.flush();
         }
       }
-      jsonGenerator.writeEndArray();
+      writer.end();
       jsonGenerator.close();
     };
+    asyncResponse.resume(Response.ok(streamingOutput, columnar ? COLUMNAR_MEDIA_TYPE : MediaType.APPLICATION_JSON).build());
+  }
+
+  @POST
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces({MediaType.APPLICATION_JSON, COLUMNAR_MEDIA_TYPE})
+  @Operation(
+    summary = "Sizes of selected repositories",
+    description = "Returns a summary of the repo sizes for the given repositories which the user may pull. Recently calculated sizes are reused.",
+    tags = "Repository Sizes",
+    operationId = "repo_sizes_get_selected_sizes"
+  )
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = {
+      @Content(mediaType = MediaType.APPLICATION_JSON),
+      @Content(mediaType = COLUMNAR_MEDIA_TYPE)
+    }
+  )
+  @ApiResponse(responseCode = "400", description = "unknown size field, no repositories or too many repositories selected")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "429", description = "too many size calculations are running, retry after the seconds given in the \"Retry-After\" header")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  @Path("")
+  public void getSelectedSizes(
+    @Suspended AsyncResponse asyncResponse,
+    @Context HttpHeaders headers,
+    @Parameter(description = "Comma separated list of the size fields to calculate, all fields if omitted")
+    @QueryParam("fields") String fieldNames,
+    List<RepositoryNameDto> repositoryNames
+  ) {
+    Set<SizeField> fields;
+    try {
+      fields = SizeField.parse(fieldNames);
+      validateSelection(repositoryNames);
+    } catch (IllegalArgumentException e) {
+      asyncResponse.resume(badRequest(e));
+      return;
+    }
+
+    boolean columnar = isColumnarAccepted(headers);
+    Map<Repository, RepositorySizeSnapshot> recent = new LinkedHashMap<>();
+    List<Repository> uncalculated = new ArrayList<>();
+    for (Repository repository : resolvePullable(repositoryNames)) {
+      sizeService.getRecentlyCalculated(repository)
+        .ifPresentOrElse(snapshot -> recent.put(repository, snapshot), () -> uncalculated.add(repository));
+    }
+
+    if (!uncalculated.isEmpty()) {
+      if (!admission.tryAcquireFullScan()) {
+        asyncResponse.resume(admission.rejected());
+        return;
+      }
+      releaseFullScanOnCompletion(asyncResponse);
+    }
+    StreamingOutput streamingOutput = output -> {
+      JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(output);
+      SizeListWriter writer = new SizeListWriter(jsonGenerator, fields, columnar);
+      writer.start();
+      for (Map.Entry<Repository, RepositorySizeSnapshot> entry : recent.entrySet()) {
+        writer.write(sizeService.createDto(entry.getKey(), entry.getValue(), fields));
+      }
+      jsonGenerator.flush();
+      for (Repository repository : uncalculated) {
+        writer.write(sizeService.createDto(repository, sizeService.calculate(repository, fields), fields));
+        jsonGenerator.flush();
+      }
+      writer.end();
+      jsonGenerator.close();
+    };
+    asyncResponse.resume(Response.ok(streamingOutput, columnar ? COLUMNAR_MEDIA_TYPE : MediaType.APPLICATION_JSON).build());
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(
+    summary = "Changed repository sizes",
+    description = "Returns the stored sizes of the repositories which the user may pull and whose size has changed after the given token, "
+      + "and the ids of the repositories deleted since then which the user was allowed to pull before the deletion. "
+      + "If the changes are not known, e.g. after a restart, \"resync\" is true and all sizes have to be read again. "
+      + "Sizes are never calculated by this request.",
+    tags = "Repository Sizes",
+    operationId = "repo_sizes_get_changes"
+  )
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = SizeChangesDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  @Path("changes")
+  public SizeChangesDto getChanges(
+    @Parameter(description = "Token of the previous poll, the current token is returned together with a resync if omitted")
+    @QueryParam("since") String token
+  ) {
+    Optional<RepositorySizeChangeLog.Changes> changes = sizeService.getChangesSince(token);
+    if (changes.isEmpty()) {
+      return new SizeChangesDto(sizeService.getCurrentChangeToken(), true, List.of(), List.of());
+    }
+
+    List<RepositorySizeChangeLog.Change> candidates = changes.get().changes();
+    Subject subject = SecurityUtils.getSubject();
+    String[] permissions = candidates.stream()
+      .map(change -> RepositoryPermissions.pull(change.repositoryId()).asShiroString())
+      .toArray(String[]::new);
+    boolean[] permitted = subject.isPermitted(permissions);
+
+    List<String> deleted = new ArrayList<>();
+    String user = subject.getPrincipal().toString();
+    Set<String> groupsOfUser = null;
+    for (int i = 0; i < candidates.size(); i++) {
+      RepositorySizeChangeLog.Change change = candidates.get(i);
+      if (!change.deleted()) {
+        continue;
+      }
+      if (!permitted[i]) {
+        // the permissions of a deleted repository are gone, so its readers are taken from the deletion
+        if (groupsOfUser == null) {
+          groupsOfUser = groupCollector.collect(user);
+        }
+        if (!change.readers().includes(user, groupsOfUser)) {
+          continue;
+        }
+      }
+      deleted.add(change.repositoryId());
+    }
+
+    List<RepositorySizeDto> changed = new ArrayList<>();
+    for (int i = 0; i < candidates.size(); i++) {
+      if (candidates.get(i).deleted() || !permitted[i]) {
+        continue;
+      }
+      Repository repository = findRepository(candidates.get(i).repositoryId());
+      if (repository != null) {
+        sizeService.getLastCalculated(repository)
+          .ifPresent(snapshot -> changed.add(sizeService.createDto(repository, snapshot)));
+      }
+    }
+    return new SizeChangesDto(changes.get().token(), false, changed, deleted);
+  }
+
+  /**
+   * The full scan runs while the entity is written, so the permit is released when the request is completed. This
+   * happens as well if the entity is never written, e.g. for HEAD requests or if the response fails.
+   */
+  private void releaseFullScanOnCompletion(AsyncResponse asyncResponse) {
+    asyncResponse.register((CompletionCallback) throwable -> admission.releaseFullScan());
+  }
+
+  private boolean isColumnarAccepted(HttpHeaders headers) {
+    MediaType columnarType = MediaType.valueOf(COLUMNAR_MEDIA_TYPE);
+    // the acceptable media types are sorted by quality, so the first one we can produce wins
+    for (MediaType acceptable : headers.getAcceptableMediaTypes()) {
+      if (!acceptable.isWildcardType() && !acceptable.isWildcardSubtype() && acceptable.isCompatible(columnarType)) {
+        return true;
+      }
+      if (acceptable.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private Predicate<Repository> createFilter(String namespace, String namePattern) {
+    Predicate<Repository> filter = repository -> true;
+    if (!Strings.isNullOrEmpty(namespace)) {
+      filter = filter.and(repository -> namespace.equals(repository.getNamespace()));
+    }
+    if (!Strings.isNullOrEmpty(namePattern)) {
+      Pattern pattern = globToPattern(namePattern);
+      filter = filter.and(repository -> pattern.matcher(repository.getName()).matches());
+    }
+    return filter;
+  }
+
+  private Pattern globToPattern(String glob) {
+    StringBuilder regex = new StringBuilder();
+    StringBuilder literal = new StringBuilder();
+    for (char c : glob.toCharArray()) {
+      if (c == '*' || c == '?') {
+        if (literal.length() > 0) {
+          regex.append(Pattern.quote(literal.toString()));
+          literal.setLength(0);
+        }
+        regex.append(c == '*' ? ".*" : ".");
+      } else {
+        literal.append(c);
+      }
+    }
+    if (literal.length() > 0) {
+      regex.append(Pattern.quote(literal.toString()));
+    }
+    return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+  }
+
+  private void validateSelection(List<RepositoryNameDto> repositoryNames) {
+    if (repositoryNames == null || repositoryNames.isEmpty()) {
+      throw new IllegalArgumentException("no repositories selected");
+    }
+    int limit = config.getMaxSelectedRepositories();
+    if (repositoryNames.size() > limit) {
+      throw new IllegalArgumentException("at most " + limit + " repositories may be selected");
+    }
+  }
+
+  private Response badRequest(IllegalArgumentException e) {
+    return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+  }
+
+  private List<Repository> resolvePullable(List<RepositoryNameDto> repositoryNames) {
+    Map<String, Repository> repositories = new LinkedHashMap<>();
+    for (RepositoryNameDto repositoryName : repositoryNames) {
+      Repository repository = resolve(repositoryName);
+      if (repository != null) {
+        repositories.putIfAbsent(repository.getId(), repository);
+      }
+    }
+
+    // check all permissions with a single call to the subject
+    List<Repository> candidates = new ArrayList<>(repositories.values());
+    String[] permissions = candidates.stream()
+      .map(repository -> RepositoryPermissions.pull(repository).asShiroString())
+      .toArray(String[]::new);
+    boolean[] permitted = SecurityUtils.getSubject().isPermitted(permissions);
+
+    List<Repository> pullable = new ArrayList<>();
+    for (int i = 0; i < candidates.size(); i++) {
+      if (permitted[i]) {
+        pullable.add(candidates.get(i));
+      }
+    }
+    return pullable;
+  }
+
+  private Repository findRepository(String repositoryId) {
+    try {
+      return repositoryManager.get(repositoryId);
+    } catch (AuthorizationException e) {
+      return null;
+    }
   }
 
-  private RepositorySizeDto createDto(Repository repo) {
-    double repoSize = sizeCalculator.getRepoSize(repo);
-    double lfsSize = sizeCalculator.getLfsSize(repo);
-    double exportsSize = sizeCalculator.getTempSize(repo);
-    double storeSize = sizeCalculator.getStoreSize(repo) - lfsSize - exportsSize;
-
-    return new RepositorySizeDto(
-      repo.getNamespace(),
-      repo.getName(),
-      repoSize + storeSize + lfsSize + exportsSize,
-      repoSize,
-      storeSize,
-      lfsSize,
-      exportsSize
-    );
+  private Repository resolve(RepositoryNameDto repositoryName) {
+    if (repositoryName == null || repositoryName.getNamespace() == null || repositoryName.getName() == null) {
+      return null;
+    }
+    try {
+      return repositoryManager.get(new NamespaceAndName(repositoryName.getNamespace(), repositoryName.getName()));
+    } catch (AuthorizationException e) {
+      // repositories the user may not read are skipped just like unknown ones
+      return null;
+    }
   }
 }
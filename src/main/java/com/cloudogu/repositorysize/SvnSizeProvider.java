@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.plugin.Extension;
+import sonia.scm.repository.Repository;
+
+import jakarta.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calculates the size of svn repositories without walking every revision file. The revision and revision
+ * property files of a fsfs repository are stored in shard directories ({@code db/revs/0}, {@code db/revs/1},
+ * ...), which are only touched while the shard is filled or packed. The totals of all shards are kept in
+ * memory and reused as long as the modification time of the shard directory is unchanged, so that only the
+ * current shard is walked again after a commit.
+ */
+@Extension
+@Singleton
+public class SvnSizeProvider implements RepositorySizeProvider {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SvnSizeProvider.class);
+
+  private static final String TYPE = "svn";
+  private static final String DATA = "data";
+  private static final String DB = "db";
+  private static final List<String> SHARDED_DIRECTORIES = List.of("revs", "revprops");
+
+  private final ConcurrentMap<String, Map<Path, Shard>> shards = new ConcurrentHashMap<>();
+
+  @Override
+  public Optional<CategorySize> calculate(Repository repository, SizeCategory category, Path location, int largestFilesLimit) {
+    if (!TYPE.equals(repository.getType()) || category != SizeCategory.REPOSITORY) {
+      return Optional.empty();
+    }
+    Path data = location.resolve(DATA);
+    if (!Files.isDirectory(data)) {
+      return Optional.empty();
+    }
+
+    Set<Path> shardedDirectories = new HashSet<>();
+    for (String name : SHARDED_DIRECTORIES) {
+      Path directory = data.resolve(DB).resolve(name);
+      if (Files.isDirectory(directory)) {
+        shardedDirectories.add(directory);
+      }
+    }
+
+    Map<Path, Shard> knownShards = shards.getOrDefault(repository.getId(), Map.of());
+    Map<Path, Shard> currentShards = new HashMap<>();
+    LargestFiles largestFiles = new LargestFiles(largestFilesLimit, location, SizeCategory.REPOSITORY);
+    FileTime cacheableBefore = RacyTimestamp.cacheableBefore();
+
+    DirSize dataSize = new DirSize(data.toString(), largestFiles, shardedDirectories);
+    double size = dataSize.inBytes();
+    ScanErrors errors = ScanErrors.of(dataSize);
+    WalkStatistics walked = WalkStatistics.of(dataSize);
+    for (Path directory : shardedDirectories) {
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          if (attributes.isDirectory()) {
+            Shard shard = knownShards.get(entry);
+            if (shard == null || !shard.isValid(attributes.lastModifiedTime(), largestFilesLimit)) {
+              shard = walk(entry, location, attributes.lastModifiedTime(), largestFilesLimit);
+              walked = walked.plus(shard.walked());
+            }
+            if (shard.sizeInBytes() < 0) {
+              // the shard has been removed while walking, e.g. because it was packed
+              continue;
+            }
+            if (shard.errors().getCount() == 0 && shard.lastModified().compareTo(cacheableBefore) < 0) {
+              currentShards.put(entry, shard);
+            }
+            size += shard.sizeInBytes();
+            errors = errors.plus(shard.errors());
+            largestFiles.addAll(shard.largestFiles());
+          } else if (attributes.isRegularFile()) {
+            // unsharded repositories keep their revision files directly in db/revs
+            size += attributes.size();
+            largestFiles.offer(entry, attributes);
+          }
+        }
+      } catch (IOException e) {
+        LOG.warn("could not read shards of {}, falling back to a full walk", directory, e);
+        return Optional.empty();
+      }
+    }
+
+    shards.put(repository.getId(), currentShards);
+    return Optional.of(new CategorySize(size, largestFiles.toList(), errors, walked));
+  }
+
+  @Override
+  public void forget(Repository repository) {
+    shards.remove(repository.getId());
+  }
+
+  private Shard walk(Path shard, Path location, FileTime lastModified, int largestFilesLimit) {
+    LargestFiles largestFiles = new LargestFiles(largestFilesLimit, location, SizeCategory.REPOSITORY);
+    DirSize dirSize = new DirSize(shard.toString(), largestFiles);
+    return new Shard(lastModified, dirSize.inBytes(), largestFiles.toList(), largestFilesLimit, ScanErrors.of(dirSize), WalkStatistics.of(dirSize));
+  }
+
+  private record Shard(FileTime lastModified, double sizeInBytes, List<LargestFile> largestFiles, int largestFilesLimit, ScanErrors errors, WalkStatistics walked) {
+
+    boolean isValid(FileTime currentLastModified, int currentLargestFilesLimit) {
+      return lastModified.equals(currentLastModified) && largestFilesLimit == currentLargestFilesLimit;
+    }
+  }
+}
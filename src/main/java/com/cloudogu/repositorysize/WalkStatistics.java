@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The files and directories which have actually been walked while calculating a size, and the time spent in the
+ * file system for it. Totals which were reused from a cache are not part of it.
+ */
+@AllArgsConstructor
+@Getter
+public class WalkStatistics {
+
+  public static final WalkStatistics NONE = new WalkStatistics(0, 0, 0);
+
+  private final long files;
+  private final long directories;
+  // only measured while flight recording is enabled
+  private final long fileSystemNanos;
+
+  public static WalkStatistics of(DirSize dirSize) {
+    return new WalkStatistics(dirSize.getFileCount(), dirSize.getDirectoryCount(), dirSize.getFileSystemNanos());
+  }
+
+  public WalkStatistics plus(WalkStatistics other) {
+    return new WalkStatistics(files + other.files, directories + other.directories, fileSystemNanos + other.fileSystemNanos);
+  }
+}
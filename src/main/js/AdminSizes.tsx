@@ -14,7 +14,7 @@
  * along with this program. If not, see https://www.gnu.org/licenses/.
  */
 
-import React, { FC, useEffect, useState } from "react";
+import React, { FC, memo, useMemo, useState } from "react";
 import {
   formatSizes,
   isNoRepositorySizeAvailable,
@@ -26,9 +26,12 @@ import {
   SortingState,
   SizeType,
 } from "./size";
+import { useWindowedRows } from "./windowing";
 import { ErrorNotification, Loading, Notification, Title, useDocumentTitle } from "@scm-manager/ui-core";
 import { Card, CardList, CardListBox } from "@scm-manager/ui-layout";
 import { Button, Icon } from "@scm-manager/ui-buttons";
+import { Select } from "@scm-manager/ui-forms";
+import { useNamespaces } from "@scm-manager/ui-api";
 import { useTranslation } from "react-i18next";
 import { Link } from "react-router-dom";
 import styled from "styled-components";
@@ -53,16 +56,20 @@ const formatter = new Intl.NumberFormat("en-US", {
   minimumFractionDigits: 2,
 });
 
+// initial guess for a repository card, replaced by the measured height once rows are rendered
+const ESTIMATED_ROW_HEIGHT = 90;
+
 type SizeDetailProps = {
   repoSize: RepositorySize;
   emphasize?: boolean;
 };
 
-const SizeDetail: FC<SizeDetailProps> = ({ repoSize, emphasize }: SizeDetailProps) => {
+const SizeDetail = memo(({ repoSize, emphasize }: SizeDetailProps) => {
   const [t] = useTranslation("plugins");
+  const sizes = useMemo(() => formatSizes(repoSize), [repoSize]);
   return (
     <>
-      {formatSizes(repoSize).map((size) => {
+      {sizes.map((size) => {
         if (isNoRepositorySizeAvailable(size)) {
           return null;
         }
@@ -89,7 +96,7 @@ const SizeDetail: FC<SizeDetailProps> = ({ repoSize, emphasize }: SizeDetailProp
       })}
     </>
   );
-};
+});
 
 type SizeDetailHeaderProps = {
   repoSize: RepositorySize;
@@ -107,6 +114,7 @@ const SizeDetailHeader: FC<SizeDetailHeaderProps> = ({
   setSortDirection,
 }: SizeDetailHeaderProps) => {
   const [t] = useTranslation("plugins");
+  const sizes = useMemo(() => formatSizes(repoSize), [repoSize]);
 
   const onSort = (field: SizeType) => {
     if (sortField === field) {
@@ -139,7 +147,7 @@ const SizeDetailHeader: FC<SizeDetailHeaderProps> = ({
 
   return (
     <>
-      {formatSizes(repoSize).map((size) => {
+      {sizes.map((size) => {
         if (isNoRepositorySizeAvailable(size)) {
           return null;
         }
@@ -170,85 +178,117 @@ const SizeDetailHeader: FC<SizeDetailHeaderProps> = ({
   );
 };
 
+const RepositoryCard = memo(({ repo, repoSize }: { repo: string; repoSize: RepositorySize }) => (
+  <CardList.Card rowGap="0.5rem">
+    <Card.Row>
+      <Card.Title>{<Link to={`/repo/${repo}/info`}>{repo}</Link>}</Card.Title>
+    </Card.Row>
+    <Card.Row>
+      <Card.Details>
+        <SizeDetail repoSize={repoSize} />
+      </Card.Details>
+    </Card.Row>
+  </CardList.Card>
+));
+
 const DataPanel: FC<{
   data: RepositorySizes;
+  rows: [string, RepositorySize][];
   sortField: SizeType | undefined;
   setSortField: (value: SizeType | undefined) => void;
   sortDirection: SortingState;
   setSortDirection: (value: SortingState) => void;
-}> = ({ data, sortField, setSortField, sortDirection, setSortDirection }) => {
+}> = ({ data, rows, sortField, setSortField, sortDirection, setSortDirection }) => {
   const [t] = useTranslation("plugins");
-  if (Object.keys(data).length === 0) {
+  const mergedSizes = useMemo(() => mergeRepoSizes(data), [data]);
+  const { listRef, rowsRef, start, end, paddingTop, paddingBottom } = useWindowedRows(
+    rows.length,
+    ESTIMATED_ROW_HEIGHT,
+  );
+  if (rows.length === 0) {
     return <Notification type="info">{t("scm-repository-size-plugin.table.empty")}</Notification>;
   }
   return (
-    <CardListBox>
-      <CardList.Card rowGap="0.5rem">
-        <Card.Row>
-          <Card.Details>
-            <SizeDetailHeader
-              repoSize={mergeRepoSizes(data)}
-              sortField={sortField}
-              setSortField={setSortField}
-              sortDirection={sortDirection}
-              setSortDirection={setSortDirection}
-            />
-          </Card.Details>
-        </Card.Row>
-      </CardList.Card>
-      <CardList.Card rowGap="0.5rem">
-        <Card.Row>
-          <Card.Title>{t("scm-repository-size-plugin.mergedReposTotal")}</Card.Title>
-        </Card.Row>
-        <Card.Row>
-          <Card.Details>
-            <SizeDetail repoSize={mergeRepoSizes(data)} emphasize={true} />
-          </Card.Details>
-        </Card.Row>
-      </CardList.Card>
-      {Object.keys(data).map((repo) => (
-        <CardList.Card key={repo} rowGap="0.5rem">
+    <>
+      <CardListBox>
+        <CardList.Card rowGap="0.5rem">
+          <Card.Row>
+            <Card.Details>
+              <SizeDetailHeader
+                repoSize={mergedSizes}
+                sortField={sortField}
+                setSortField={setSortField}
+                sortDirection={sortDirection}
+                setSortDirection={setSortDirection}
+              />
+            </Card.Details>
+          </Card.Row>
+        </CardList.Card>
+        <CardList.Card rowGap="0.5rem">
           <Card.Row>
-            <Card.Title>{<Link to={`/repo/${repo}/info`}>{repo}</Link>}</Card.Title>
+            <Card.Title>{t("scm-repository-size-plugin.mergedReposTotal")}</Card.Title>
           </Card.Row>
           <Card.Row>
             <Card.Details>
-              <SizeDetail repoSize={data[repo]} />
+              <SizeDetail repoSize={mergedSizes} emphasize={true} />
             </Card.Details>
           </Card.Row>
         </CardList.Card>
-      ))}
-    </CardListBox>
+      </CardListBox>
+      <div ref={listRef} style={{ paddingTop, paddingBottom }}>
+        <div ref={rowsRef}>
+          <CardListBox>
+            {rows.slice(start, end).map(([repo, repoSize]) => (
+              <RepositoryCard key={repo} repo={repo} repoSize={repoSize} />
+            ))}
+          </CardListBox>
+        </div>
+      </div>
+    </>
+  );
+};
+
+const NamespaceSelect: FC<{ namespace: string; setNamespace: (value: string) => void }> = ({
+  namespace,
+  setNamespace,
+}) => {
+  const [t] = useTranslation("plugins");
+  const { data: namespaces } = useNamespaces();
+  const options = [
+    { label: t("scm-repository-size-plugin.namespaceFilter.all"), value: "" },
+    ...(namespaces?._embedded?.namespaces.map((n) => ({ label: n.namespace, value: n.namespace })) || []),
+  ];
+  return (
+    <Select
+      aria-label={t("scm-repository-size-plugin.namespaceFilter.label")}
+      options={options}
+      value={namespace}
+      onChange={(event) => setNamespace(event.target.value)}
+    />
   );
 };
 
 const AdminSizes: FC = () => {
-  const { data, isLoading, error } = useReposSize();
+  const [namespace, setNamespace] = useState("");
+  const { data, isLoading, error } = useReposSize(namespace || undefined);
   const [t] = useTranslation("plugins");
   useDocumentTitle(t("scm-repository-size-plugin.title"));
   const [sortField, setSortField] = useState<SizeType | undefined>(undefined);
   const [sortDirection, setSortDirection] = useState<SortingState>("unsorted");
-  const [repos, setRepos] = useState(data);
-
-  useEffect(() => {
-    if (sortField) {
-      const r = sortRepoByField(data, sortField, sortDirection);
-      setRepos(r);
-    } else {
-      setRepos(data);
-    }
-  }, [sortField, sortDirection, data]);
+  const rows = useMemo(() => sortRepoByField(data, sortField, sortDirection), [data, sortField, sortDirection]);
 
   return (
     <>
       <Title title={t("scm-repository-size-plugin.title")} />
       {error ? <ErrorNotification error={error} /> : null}
       <Notification type="info">{t("scm-repository-size-plugin.adminInfo")}</Notification>
-      {isLoading && repos ? (
+      <NamespaceSelect namespace={namespace} setNamespace={setNamespace} />
+      {isLoading ? (
         <Loading />
       ) : (
         <DataPanel
-          data={repos}
+          data={data}
+          rows={rows}
           sortField={sortField}
           setSortField={setSortField}
           sortDirection={sortDirection}
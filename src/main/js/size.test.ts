@@ -14,7 +14,7 @@
  * along with this program. If not, see https://www.gnu.org/licenses/.
  */
 
-import { mergeRepoSizes, RepositorySize } from "./size";
+import { decodeColumnarSizes, mergeRepoSizes, RepositorySize } from "./size";
 
 describe("size", () => {
   describe(mergeRepoSizes, () => {
@@ -137,4 +137,21 @@ describe("size", () => {
       expect(result).toEqual(expected);
     });
   });
+
+  describe(decodeColumnarSizes, () => {
+    it("should create one object per row", () => {
+      const result = decodeColumnarSizes({
+        columns: ["namespace", "name", "repoSizeInBytes", "lfsSizeInBytes"],
+        rows: [
+          ["hitchhiker", "HeartOfGold", 42, null],
+          ["hitchhiker", "42Puzzle", 5000000000, 21],
+        ],
+      });
+
+      expect(result).toEqual([
+        { namespace: "hitchhiker", name: "HeartOfGold", repoSizeInBytes: 42 },
+        { namespace: "hitchhiker", name: "42Puzzle", repoSizeInBytes: 5000000000, lfsSizeInBytes: 21 },
+      ]);
+    });
+  });
 });
@@ -15,8 +15,9 @@
  */
 
 import { Repository } from "@scm-manager/ui-types";
-import { useIndex, useJsonResource } from "@scm-manager/ui-api";
+import { apiClient, useIndexLink, useJsonResource } from "@scm-manager/ui-api";
 import { useEffect, useState } from "react";
+import { useQuery } from "react-query";
 
 type ConvertedSize = {
   name: string;
@@ -42,7 +43,15 @@ type SizeTypes = {
   [K in (typeof sizeTypeNames)[number]]: number;
 };
 
-type BackendSizes = SizeTypes & { name: string; namespace: string };
+type BackendSizes = SizeTypes & { name: string; namespace: string; errorCount?: number };
+
+// sizes are transferred column by column, so that field names are not repeated for every repository
+export const COLUMNAR_MEDIA_TYPE = "application/vnd.scmm-repositorySizes.columnar+json;v=2";
+
+type ColumnarSizes = {
+  columns: string[];
+  rows: (string | number | null)[][];
+};
 
 export type RepositorySize = SizeTypes;
 
@@ -50,23 +59,45 @@ export type RepositorySizes = {
   [repository: string]: RepositorySize;
 };
 
+export const decodeColumnarSizes = ({ columns, rows }: ColumnarSizes) =>
+  rows.map((row) => {
+    const size: Record<string, string | number> = {};
+    columns.forEach((column, index) => {
+      const value = row[index];
+      if (value !== null && value !== undefined) {
+        size[column] = value;
+      }
+    });
+    return size as BackendSizes;
+  });
+
 export const isNoRepositorySizeAvailable = (repositorySize: ConvertedSize) => repositorySize.value < 0;
 
 export const useRepoSize = (repository: Repository) =>
   useJsonResource<RepositorySizes>(repository, "size", ["repository", repository.namespace, repository.name, "size"]);
 
-export const useReposSize = () => {
+export const useReposSize = (namespace?: string) => {
   // fetch streaming json data from url
   const [data, setData] = useState<RepositorySizes>({});
-  const { data: index } = useIndex();
+  const link = useIndexLink("repository-size");
   const {
     data: sizes,
     isLoading,
     error,
-  } = useJsonResource<BackendSizes[]>(index!, "repository-size", ["repository-size"]);
+  } = useQuery<BackendSizes[], Error>(
+    ["repository-size", namespace || ""],
+    () =>
+      apiClient
+        .get(namespace ? `${link}?namespace=${encodeURIComponent(namespace)}` : link!, {
+          Accept: COLUMNAR_MEDIA_TYPE,
+        })
+        .then((response) => response.json())
+        .then(decodeColumnarSizes),
+    { enabled: !!link },
+  );
 
   useEffect(() => {
-    if (isLoading) {
+    if (isLoading || !sizes) {
       return;
     }
     const data: RepositorySizes = {};
@@ -84,7 +115,9 @@ export const useReposSize = () => {
 };
 
 export const formatSizes = (size: RepositorySize) =>
-  Object.entries(size).reduce<ConvertedSize[]>((convertedSizes, [name, value]) => {
+  // only the sizes are formatted, other numbers like the error count are skipped
+  sizeTypeNames.reduce<ConvertedSize[]>((convertedSizes, name) => {
+    const value = size[name];
     if (typeof value === "number") {
       if (value <= 1024) {
         convertedSizes.push({ name, value, unit: " B" });
@@ -125,17 +158,17 @@ export const mergeRepoSizes = (sizes: RepositorySizes) => {
   return mergedSizes;
 };
 
-export const sortRepoByField = (repos: RepositorySizes, field: SizeType, sorting: SortingState) => {
-  if (sorting === "unsorted") {
-    return repos;
+export const sortRepoByField = (repos: RepositorySizes, field: SizeType | undefined, sorting: SortingState) => {
+  // entries are returned directly, so that sorting does not copy every size into a new object
+  const entries = Object.entries(repos);
+  if (!field || sorting === "unsorted") {
+    return entries;
   }
-  return Object.fromEntries(
-    Object.entries(repos).sort((a, b) => {
-      if (sorting === "asc") {
-        return a[1][field] - b[1][field];
-      } else {
-        return b[1][field] - a[1][field];
-      }
-    }),
-  );
+  return entries.sort((a, b) => {
+    if (sorting === "asc") {
+      return a[1][field] - b[1][field];
+    } else {
+      return b[1][field] - a[1][field];
+    }
+  });
 };
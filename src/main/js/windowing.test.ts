@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+import { visibleRange } from "./windowing";
+
+describe("windowing", () => {
+  describe(visibleRange, () => {
+    it("should render the rows in the viewport with overscan", () => {
+      expect(visibleRange(1000, 100, 0, 1000, 500, 2)).toEqual({ start: 8, end: 17 });
+    });
+
+    it("should respect the offset of the list on the page", () => {
+      expect(visibleRange(1000, 100, 300, 0, 500, 0)).toEqual({ start: 0, end: 2 });
+    });
+
+    it("should not exceed the number of rows", () => {
+      expect(visibleRange(5, 100, 0, 0, 2000, 10)).toEqual({ start: 0, end: 5 });
+    });
+
+    it("should render nothing if the list is above the viewport", () => {
+      expect(visibleRange(10, 100, 0, 5000, 500, 2)).toEqual({ start: 10, end: 10 });
+    });
+  });
+});
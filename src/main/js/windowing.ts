@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+import { useEffect, useLayoutEffect, useRef, useState } from "react";
+
+export type RowRange = {
+  start: number;
+  end: number;
+};
+
+export const visibleRange = (
+  count: number,
+  rowHeight: number,
+  listTop: number,
+  viewportTop: number,
+  viewportHeight: number,
+  overscan: number,
+): RowRange => {
+  const clamp = (index: number) => Math.min(count, Math.max(0, index));
+  const first = Math.floor((viewportTop - listTop) / rowHeight);
+  const last = Math.ceil((viewportTop + viewportHeight - listTop) / rowHeight);
+  return { start: clamp(first - overscan), end: clamp(last + overscan) };
+};
+
+/**
+ * Renders only the rows of a long list which are near the viewport of the page. Rows outside are replaced by
+ * padding, which is calculated from the average height of the rendered rows.
+ */
+export const useWindowedRows = (count: number, estimatedRowHeight: number, overscan = 10) => {
+  const listRef = useRef<HTMLDivElement>(null);
+  const rowsRef = useRef<HTMLDivElement>(null);
+  const [rowHeight, setRowHeight] = useState(estimatedRowHeight);
+  const [range, setRange] = useState<RowRange>({ start: 0, end: Math.min(count, overscan) });
+
+  useEffect(() => {
+    const update = () => {
+      if (!listRef.current) {
+        return;
+      }
+      const listTop = listRef.current.getBoundingClientRect().top + window.scrollY;
+      const next = visibleRange(count, rowHeight, listTop, window.scrollY, window.innerHeight, overscan);
+      // scroll events within the same rows must not trigger a render
+      setRange((current) => (current.start === next.start && current.end === next.end ? current : next));
+    };
+    update();
+    window.addEventListener("scroll", update, { passive: true });
+    window.addEventListener("resize", update);
+    return () => {
+      window.removeEventListener("scroll", update);
+      window.removeEventListener("resize", update);
+    };
+  }, [count, rowHeight, overscan]);
+
+  useLayoutEffect(() => {
+    const rendered = range.end - range.start;
+    if (rowsRef.current && rendered > 0) {
+      const measured = rowsRef.current.offsetHeight / rendered;
+      if (Math.abs(measured - rowHeight) > 1) {
+        setRowHeight(measured);
+      }
+    }
+  }, [range, rowHeight]);
+
+  return {
+    listRef,
+    rowsRef,
+    start: range.start,
+    end: range.end,
+    paddingTop: range.start * rowHeight,
+    paddingBottom: Math.max(0, count - range.end) * rowHeight,
+  };
+};
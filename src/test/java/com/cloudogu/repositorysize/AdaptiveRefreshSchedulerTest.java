@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AdaptiveRefreshSchedulerTest {
+
+  private final Repository dueRepository = RepositoryTestData.create42Puzzle();
+  private final Repository notDueRepository = RepositoryTestData.createHeartOfGold();
+
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private RepositorySizeService sizeService;
+  @Mock
+  private RefreshScheduleStore scheduleStore;
+  @Mock
+  private RepositorySizeConfig config;
+
+  @InjectMocks
+  private AdaptiveRefreshScheduler refreshScheduler;
+
+  private final RefreshSchedule dueSchedule = new RefreshSchedule(60, 0, 0);
+  private final RefreshSchedule notDueSchedule = new RefreshSchedule(60, Long.MAX_VALUE, 0);
+
+  @BeforeEach
+  void initMocks() {
+    dueRepository.setId("due");
+    notDueRepository.setId("notDue");
+    lenient().when(repositoryManager.getAll()).thenReturn(List.of(dueRepository, notDueRepository));
+    lenient().when(config.getRefreshBatchSize()).thenReturn(10);
+    lenient().when(config.getMinRefreshIntervalSeconds()).thenReturn(60L);
+    lenient().when(config.getMaxRefreshIntervalSeconds()).thenReturn(600L);
+    lenient().when(scheduleStore.get(eq("due"), anyLong(), anyLong())).thenReturn(dueSchedule);
+    lenient().when(scheduleStore.get(eq("notDue"), anyLong(), anyLong())).thenReturn(notDueSchedule);
+    lenient().doAnswer(invocation -> {
+      String id = invocation.getArgument(0);
+      Consumer<RefreshSchedule> modification = invocation.getArgument(3);
+      modification.accept(id.equals("due") ? dueSchedule : notDueSchedule);
+      return null;
+    }).when(scheduleStore).update(eq("due"), anyLong(), anyLong(), any());
+  }
+
+  @Test
+  void shouldQueueOnlyDueRepositories() {
+    when(sizeService.refreshInBackground(dueRepository)).thenReturn(new CompletableFuture<>());
+
+    refreshScheduler.queueDueRepositories();
+
+    verify(sizeService).refreshInBackground(dueRepository);
+    verify(sizeService, never()).refreshInBackground(notDueRepository);
+    assertThat(dueSchedule.isDue(System.currentTimeMillis())).isFalse();
+  }
+
+  @Test
+  void shouldRespectBatchSize() {
+    when(config.getRefreshBatchSize()).thenReturn(0);
+
+    refreshScheduler.queueDueRepositories();
+
+    verify(sizeService, never()).refreshInBackground(dueRepository);
+  }
+
+  @Test
+  void shouldNotQueueRepositoryAgainWhileRefreshIsPending() {
+    CompletableFuture<RepositorySizeSnapshot> refresh = new CompletableFuture<>();
+    when(sizeService.refreshInBackground(dueRepository)).thenReturn(refresh);
+
+    refreshScheduler.queueDueRepositories();
+    dueSchedule.onPush(0, 0);
+    refreshScheduler.queueDueRepositories();
+
+    verify(sizeService, times(1)).refreshInBackground(dueRepository);
+  }
+
+  @Test
+  void shouldSkipRunWhilePendingRefreshesOccupyTheBatch() {
+    when(config.getRefreshBatchSize()).thenReturn(1);
+    when(sizeService.refreshInBackground(dueRepository)).thenReturn(new CompletableFuture<>());
+
+    refreshScheduler.queueDueRepositories();
+    refreshScheduler.queueDueRepositories();
+
+    verify(repositoryManager, times(1)).getAll();
+  }
+
+  @Test
+  void shouldQueueRepositoryAgainAfterCancelledRefresh() {
+    CompletableFuture<RepositorySizeSnapshot> refresh = new CompletableFuture<>();
+    when(sizeService.refreshInBackground(dueRepository)).thenReturn(refresh);
+
+    refreshScheduler.queueDueRepositories();
+    refresh.cancel(false);
+    dueSchedule.onPush(0, 0);
+    refreshScheduler.queueDueRepositories();
+
+    verify(sizeService, times(2)).refreshInBackground(dueRepository);
+  }
+
+  @Test
+  void shouldBackOffIfSizeIsUnchanged() {
+    RepositorySizeSnapshot snapshot = new RepositorySizeSnapshot("hitchhiker", "42Puzzle", 42, 42, 0, 0, 0, List.of(), 0, 0);
+    when(sizeService.getLastCalculated(dueRepository)).thenReturn(Optional.of(snapshot));
+    when(sizeService.refreshInBackground(dueRepository)).thenReturn(CompletableFuture.completedFuture(snapshot));
+
+    refreshScheduler.queueDueRepositories();
+
+    assertThat(dueSchedule.getIntervalSeconds()).isEqualTo(120);
+  }
+
+  @Test
+  void shouldRefreshMoreOftenIfSizeHasChanged() {
+    RefreshSchedule schedule = new RefreshSchedule(600, 0, 0);
+    when(scheduleStore.get(eq("due"), anyLong(), anyLong())).thenReturn(schedule);
+    doAnswer(invocation -> {
+      Consumer<RefreshSchedule> modification = invocation.getArgument(3);
+      modification.accept(schedule);
+      return null;
+    }).when(scheduleStore).update(eq("due"), anyLong(), anyLong(), any());
+    when(sizeService.getLastCalculated(dueRepository))
+      .thenReturn(Optional.of(new RepositorySizeSnapshot("hitchhiker", "42Puzzle", 42, 42, 0, 0, 0, List.of(), 0, 0)));
+    when(sizeService.refreshInBackground(dueRepository))
+      .thenReturn(CompletableFuture.completedFuture(new RepositorySizeSnapshot("hitchhiker", "42Puzzle", 84, 84, 0, 0, 0, List.of(), 0, 0)));
+
+    refreshScheduler.queueDueRepositories();
+
+    assertThat(schedule.getIntervalSeconds()).isEqualTo(300);
+  }
+}
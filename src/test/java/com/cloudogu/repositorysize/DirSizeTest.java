@@ -16,6 +16,9 @@
 
 package com.cloudogu.repositorysize;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -23,8 +26,14 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class DirSizeTest {
 
@@ -87,4 +96,105 @@ class DirSizeTest {
       assertThat(dirSize.inBytes()).isEqualTo(3);
     }
   }
+
+  @Test
+  void shouldCountSymbolicLinksToRegularFiles(@TempDir Path dir, @TempDir Path target) throws IOException {
+    try (RandomAccessFile f = new RandomAccessFile(target + "/test", "rw")) {
+      f.setLength(1024);
+    }
+    try {
+      Files.createSymbolicLink(dir.resolve("link"), target.resolve("test"));
+      Files.createSymbolicLink(dir.resolve("dangling"), target.resolve("missing"));
+    } catch (UnsupportedOperationException | IOException e) {
+      assumeTrue(false, "symbolic links are not supported");
+    }
+
+    DirSize dirSize = new DirSize(dir.toString());
+
+    assertThat(dirSize.inBytes()).isEqualTo(1024);
+    assertThat(dirSize.getFileCount()).isEqualTo(1);
+    assertThat(dirSize.getErrorCount()).isZero();
+  }
+
+  @Test
+  void shouldCollectLargestFiles(@TempDir Path dir) throws IOException {
+    Files.createDirectory(Path.of(dir.toString(), "2"));
+    try (RandomAccessFile f1 = new RandomAccessFile(dir + "/small", "rw");
+         RandomAccessFile f2 = new RandomAccessFile(dir + "/2/big", "rw");
+         RandomAccessFile f3 = new RandomAccessFile(dir + "/medium", "rw")) {
+      f1.setLength(1);
+      f2.setLength(100);
+      f3.setLength(10);
+
+      LargestFiles largestFiles = new LargestFiles(2, dir, SizeCategory.REPOSITORY);
+      DirSize dirSize = new DirSize(dir.toString(), largestFiles);
+
+      assertThat(dirSize.inBytes()).isEqualTo(111);
+      assertThat(largestFiles.toList())
+        .extracting(LargestFile::getPath)
+        .containsExactly(Path.of("2", "big").toString(), "medium");
+    }
+  }
+
+  @Test
+  void shouldCountFilesAndDirectories(@TempDir Path dir) throws IOException {
+    Files.createDirectories(dir.resolve("a").resolve("b"));
+    Files.write(dir.resolve("a").resolve("one"), new byte[1]);
+    Files.write(dir.resolve("a").resolve("b").resolve("two"), new byte[2]);
+
+    DirSize dirSize = new DirSize(dir.toString());
+
+    assertThat(dirSize.getFileCount()).isEqualTo(2);
+    assertThat(dirSize.getDirectoryCount()).isEqualTo(3);
+    assertThat(dirSize.getErrorCount()).isZero();
+  }
+
+  @Test
+  void shouldCountUnreadableDirectoriesByCause(@TempDir Path dir) throws IOException {
+    assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+    Files.write(dir.resolve("one"), new byte[42]);
+    Path first = Files.createDirectory(dir.resolve("first"));
+    Path second = Files.createDirectory(dir.resolve("second"));
+    Files.setPosixFilePermissions(first, Set.of());
+    Files.setPosixFilePermissions(second, Set.of());
+    try {
+      // permissions are not enforced for root
+      assumeFalse(Files.isReadable(first));
+
+      DirSize dirSize = new DirSize(dir.toString());
+
+      assertThat(dirSize.inBytes()).isEqualTo(42);
+      assertThat(dirSize.getErrorCount()).isEqualTo(2);
+      assertThat(dirSize.getErrorsByCause()).containsExactly(entry("AccessDeniedException", 2L));
+      assertThat(dirSize.getErrorSamples()).containsExactlyInAnyOrder(first.toString(), second.toString());
+    } finally {
+      Files.setPosixFilePermissions(first, PosixFilePermissions.fromString("rwx------"));
+      Files.setPosixFilePermissions(second, PosixFilePermissions.fromString("rwx------"));
+    }
+  }
+
+  @Test
+  void shouldEmitFlightRecorderEvent(@TempDir Path dir) throws IOException {
+    Files.write(dir.resolve("one"), new byte[42]);
+    // the dump is written after the walk and does not influence the result
+    Path dump = dir.resolve("scan.jfr");
+
+    try (Recording recording = new Recording()) {
+      recording.enable(DirectoryScanEvent.class);
+      recording.start();
+      new DirSize(dir.toString());
+      recording.stop();
+      recording.dump(dump);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+    assertThat(events)
+      .filteredOn(event -> event.getEventType().getName().equals("com.cloudogu.repositorysize.DirectoryScan"))
+      .singleElement()
+      .satisfies(event -> {
+        assertThat(event.getString("path")).isEqualTo(dir.toString());
+        assertThat(event.getLong("files")).isEqualTo(1);
+        assertThat(event.getLong("bytes")).isEqualTo(42);
+      });
+  }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+import static com.cloudogu.repositorysize.TestFiles.createFile;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HgSizeProviderTest {
+
+  private static final FileTime YESTERDAY = FileTime.from(Instant.now().minus(1, ChronoUnit.DAYS));
+  private static final String CHANGELOG = "data/.hg/store/00changelog.i";
+
+  private final HgSizeProvider provider = new HgSizeProvider();
+
+  @Test
+  void shouldIgnoreOtherRepositoryTypes(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("git");
+    createFile(location, CHANGELOG, 10);
+
+    assertThat(provider.calculate(repository, SizeCategory.REPOSITORY, location, 20)).isEmpty();
+  }
+
+  @Test
+  void shouldIgnoreRepositoriesWithoutChangelog(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("hg");
+    createFile(location, "data/.hg/requires", 10);
+
+    assertThat(provider.calculate(repository, SizeCategory.REPOSITORY, location, 20)).isEmpty();
+  }
+
+  @Test
+  void shouldCalculateSizeOfRevlogsAndStore(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("hg");
+    createFile(location, "data/.hg/requires", 1);
+    createFile(location, CHANGELOG, 10);
+    createFile(location, "data/.hg/store/00manifest.i", 20);
+    createFile(location, "data/.hg/store/data/readme.md.i", 100);
+    createFile(location, "data/.hg/store/meta/src/00manifest.i", 200);
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 1);
+
+    assertThat(size).hasValueSatisfying(categorySize -> {
+      assertThat(categorySize.getSizeInBytes()).isEqualTo(331.0);
+      assertThat(categorySize.getLargestFiles())
+        .singleElement()
+        .satisfies(file -> assertThat(file.getPath()).isEqualTo(Path.of("data", ".hg", "store", "meta", "src", "00manifest.i").toString()));
+    });
+  }
+
+  @Test
+  void shouldReuseKnownRevlogsWhileChangelogIsUnchanged(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("hg");
+    createFile(location, CHANGELOG, 10);
+    createFile(location, "data/.hg/store/data/readme.md.i", 100);
+    Files.setLastModifiedTime(location.resolve(CHANGELOG), YESTERDAY);
+    provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    createFile(location, "data/.hg/store/data/readme.md.i", 500);
+    createFile(location, "data/.hg/store/phaseroots", 5);
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    assertThat(size).hasValueSatisfying(categorySize -> assertThat(categorySize.getSizeInBytes()).isEqualTo(115.0));
+  }
+
+  @Test
+  void shouldWalkRevlogsAgainAfterCommit(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("hg");
+    createFile(location, CHANGELOG, 10);
+    createFile(location, "data/.hg/store/data/readme.md.i", 100);
+    Files.setLastModifiedTime(location.resolve(CHANGELOG), YESTERDAY);
+    provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    createFile(location, "data/.hg/store/data/readme.md.i", 150);
+    createFile(location, CHANGELOG, 20);
+    Files.setLastModifiedTime(location.resolve(CHANGELOG), YESTERDAY);
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    assertThat(size).hasValueSatisfying(categorySize -> assertThat(categorySize.getSizeInBytes()).isEqualTo(170.0));
+  }
+
+  @Test
+  void shouldDropRemovedRevlogs(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("hg");
+    createFile(location, CHANGELOG, 10);
+    createFile(location, "data/.hg/store/data/readme.md.i", 100);
+    createFile(location, "data/.hg/store/data/obsolete.txt.i", 300);
+    Files.setLastModifiedTime(location.resolve(CHANGELOG), YESTERDAY);
+    provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    // e.g. stripped by a history rewrite, which truncates the changelog, too
+    Files.delete(location.resolve("data/.hg/store/data/obsolete.txt.i"));
+    createFile(location, CHANGELOG, 8);
+    Files.setLastModifiedTime(location.resolve(CHANGELOG), YESTERDAY);
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    assertThat(size).hasValueSatisfying(categorySize -> {
+      assertThat(categorySize.getSizeInBytes()).isEqualTo(108.0);
+      assertThat(categorySize.getLargestFiles())
+        .extracting(LargestFile::getPath)
+        .doesNotContain(Path.of("data", ".hg", "store", "data", "obsolete.txt.i").toString());
+    });
+  }
+
+  @Test
+  void shouldTakeLargestFilesOfAnyLimitFromKnownRevlogs(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("hg");
+    createFile(location, CHANGELOG, 10);
+    createFile(location, "data/.hg/store/data/readme.md.i", 100);
+    createFile(location, "data/.hg/store/data/main.c.i", 200);
+    Files.setLastModifiedTime(location.resolve(CHANGELOG), YESTERDAY);
+    provider.calculate(repository, SizeCategory.REPOSITORY, location, 1);
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 2);
+
+    assertThat(size).hasValueSatisfying(categorySize -> {
+      assertThat(categorySize.getLargestFiles())
+        .extracting(LargestFile::getSizeInBytes)
+        .containsExactly(200L, 100L);
+      // the revlogs are not listed again for another limit
+      assertThat(categorySize.getWalked().getFiles()).isEqualTo(1);
+    });
+  }
+
+  @Test
+  void shouldForgetRevlogsOfDeletedRepository(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("hg");
+    createFile(location, CHANGELOG, 10);
+    createFile(location, "data/.hg/store/data/readme.md.i", 100);
+    Files.setLastModifiedTime(location.resolve(CHANGELOG), YESTERDAY);
+    provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    provider.forget(repository);
+    createFile(location, "data/.hg/store/data/readme.md.i", 500);
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    assertThat(size).hasValueSatisfying(categorySize -> assertThat(categorySize.getSizeInBytes()).isEqualTo(510.0));
+  }
+}
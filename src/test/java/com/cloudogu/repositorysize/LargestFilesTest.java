@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LargestFilesTest {
+
+  @Test
+  void shouldKeepOnlyLargestFiles() {
+    LargestFiles largestFiles = new LargestFiles(2);
+
+    largestFiles.addAll(List.of(
+      new LargestFile("a", 1, SizeCategory.REPOSITORY, 0),
+      new LargestFile("b", 3, SizeCategory.REPOSITORY, 0),
+      new LargestFile("c", 2, SizeCategory.REPOSITORY, 0)
+    ));
+
+    assertThat(largestFiles.toList()).extracting(LargestFile::getPath).containsExactly("b", "c");
+  }
+
+  @Test
+  void shouldPreferSpecificCategoryForFilesVisitedTwice() {
+    LargestFiles largestFiles = new LargestFiles(2);
+
+    largestFiles.addAll(List.of(new LargestFile("store/blob/git-lfs/x", 5, SizeCategory.STORE, 0)));
+    largestFiles.addAll(List.of(new LargestFile("store/blob/git-lfs/x", 5, SizeCategory.LFS, 0)));
+
+    assertThat(largestFiles.toList())
+      .singleElement()
+      .extracting(LargestFile::getCategory)
+      .isEqualTo(SizeCategory.LFS);
+  }
+
+  @Test
+  void shouldCollectNothingWithoutLimit() {
+    LargestFiles largestFiles = new LargestFiles(0);
+
+    largestFiles.addAll(List.of(new LargestFile("a", 1, SizeCategory.REPOSITORY, 0)));
+
+    assertThat(largestFiles.toList()).isEmpty();
+  }
+}
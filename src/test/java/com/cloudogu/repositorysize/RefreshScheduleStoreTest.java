@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.store.DataStore;
+import sonia.scm.store.DataStoreFactory;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RefreshScheduleStoreTest {
+
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private DataStoreFactory dataStoreFactory;
+  @Mock
+  private DataStore<RefreshSchedule> dataStore;
+
+  private RefreshScheduleStore store;
+
+  @BeforeEach
+  void initStore() {
+    when(dataStoreFactory.withType(RefreshSchedule.class).withName("repository-size-refresh").build()).thenReturn(dataStore);
+    when(dataStore.getAll()).thenReturn(Map.of());
+    store = new RefreshScheduleStore(dataStoreFactory);
+  }
+
+  @Test
+  void shouldPersistUpdatedSchedule() {
+    store.update("42", 0, 60, schedule -> schedule.onQueued(0));
+
+    assertThat(store.get("42", 0, 60).getNextRefreshAt()).isEqualTo(60_000);
+    verify(dataStore).put(eq("42"), any());
+  }
+
+  @Test
+  void shouldNotRecreateScheduleOfDeletedRepository() {
+    store.remove("42");
+
+    store.update("42", 0, 60, schedule -> schedule.onRefreshed(0, true, 60, 600));
+
+    verify(dataStore, never()).put(any(), any());
+  }
+}
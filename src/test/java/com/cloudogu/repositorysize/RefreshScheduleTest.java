@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RefreshScheduleTest {
+
+  private static final long MIN = 60;
+  private static final long MAX = 600;
+
+  @Test
+  void shouldBeDueWithinMinimalIntervalInitially() {
+    RefreshSchedule schedule = RefreshSchedule.initial("42", 1000, MIN);
+
+    assertThat(schedule.isDue(1000 + MIN * 1000)).isTrue();
+    assertThat(schedule.getIntervalSeconds()).isEqualTo(MIN);
+  }
+
+  @Test
+  void shouldSpreadInitialRefreshes() {
+    long distinctRefreshTimes = IntStream.range(0, 100)
+      .mapToLong(id -> RefreshSchedule.initial("repository-" + id, 0, MIN).getNextRefreshAt())
+      .distinct()
+      .count();
+
+    assertThat(distinctRefreshTimes).isGreaterThan(90);
+  }
+
+  @Test
+  void shouldNotBeDueAfterQueued() {
+    RefreshSchedule schedule = RefreshSchedule.initial("42", 0, MIN);
+
+    schedule.onQueued(0);
+
+    assertThat(schedule.isDue(MIN * 1000 - 1)).isFalse();
+    assertThat(schedule.isDue(MIN * 1000)).isTrue();
+  }
+
+  @Test
+  void shouldBackOffWhileUnchanged() {
+    RefreshSchedule schedule = RefreshSchedule.initial("42", 0, MIN);
+
+    schedule.onRefreshed(0, false, MIN, MAX);
+    assertThat(schedule.getIntervalSeconds()).isEqualTo(120);
+    schedule.onRefreshed(0, false, MIN, MAX);
+    schedule.onRefreshed(0, false, MIN, MAX);
+    schedule.onRefreshed(0, false, MIN, MAX);
+
+    assertThat(schedule.getIntervalSeconds()).isEqualTo(MAX);
+    assertThat(schedule.getNextRefreshAt()).isEqualTo(MAX * 1000);
+  }
+
+  @Test
+  void shouldNotBackOffIfPushedWithinInterval() {
+    RefreshSchedule schedule = new RefreshSchedule(120, 0, 0);
+    schedule.onPush(100_000, MIN);
+
+    schedule.onRefreshed(150_000, false, MIN, MAX);
+
+    assertThat(schedule.getIntervalSeconds()).isEqualTo(MIN);
+    assertThat(schedule.getNextRefreshAt()).isEqualTo(150_000 + MIN * 1000);
+  }
+
+  @Test
+  void shouldBackOffIfLastPushIsOlderThanInterval() {
+    RefreshSchedule schedule = new RefreshSchedule(MIN, 0, 1000);
+
+    schedule.onRefreshed(1000 + MIN * 1000, false, MIN, MAX);
+
+    assertThat(schedule.getIntervalSeconds()).isEqualTo(120);
+  }
+
+  @Test
+  void shouldRefreshMoreOftenIfChanged() {
+    RefreshSchedule schedule = new RefreshSchedule(MAX, 0, 0);
+
+    schedule.onRefreshed(0, true, MIN, MAX);
+
+    assertThat(schedule.getIntervalSeconds()).isEqualTo(300);
+  }
+
+  @Test
+  void shouldBringRefreshForwardOnPush() {
+    RefreshSchedule schedule = new RefreshSchedule(MAX, MAX * 1000, 0);
+
+    schedule.onPush(1000, MIN);
+
+    assertThat(schedule.getIntervalSeconds()).isEqualTo(300);
+    assertThat(schedule.getNextRefreshAt()).isEqualTo(1000 + MIN * 1000);
+    assertThat(schedule.getLastPushAt()).isEqualTo(1000);
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.cloudogu.repositorysize;
 
+import de.otto.edison.hal.HalRepresentation;
 import org.github.sdorra.jse.ShiroExtension;
 import org.github.sdorra.jse.SubjectAware;
 import org.junit.jupiter.api.BeforeEach;
@@ -33,9 +34,14 @@ import sonia.scm.repository.RepositoryTestData;
 import jakarta.inject.Provider;
 
 import java.net.URI;
+import java.util.List;
+import java.util.Optional;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -48,6 +54,12 @@ class RepositoryEnricherTest {
   @Mock
   private Provider<ScmPathInfoStore> storeProvider;
 
+  @Mock
+  private RepositorySizeService sizeService;
+
+  @Mock
+  private RepositorySizeConfig config;
+
   @Mock
   private HalAppender appender;
 
@@ -81,4 +93,40 @@ class RepositoryEnricherTest {
 
     verify(appender).appendLink("size", "v2/repository-size/hitchhiker/42Puzzle");
   }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:pull:1")
+  void shouldEmbedLastCalculatedSize() {
+    RepositorySizeSnapshot snapshot = new RepositorySizeSnapshot("hitchhiker", "42Puzzle", 42, 42, 0, 0, 0, List.of(), 0, 0);
+    RepositorySizeDto dto = new RepositorySizeDto();
+    when(config.isEmbedInRepository()).thenReturn(true);
+    when(sizeService.getLastCalculated(repository)).thenReturn(Optional.of(snapshot));
+    when(sizeService.createDto(repository, snapshot)).thenReturn(dto);
+
+    enricher.enrich(context, appender);
+
+    verify(appender).appendEmbedded("repositorySize", dto);
+    verify(sizeService, never()).calculate(repository);
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:pull:1")
+  void shouldNotEmbedSizeIfNothingWasCalculated() {
+    when(config.isEmbedInRepository()).thenReturn(true);
+    when(sizeService.getLastCalculated(repository)).thenReturn(Optional.empty());
+
+    enricher.enrich(context, appender);
+
+    verify(appender, never()).appendEmbedded(anyString(), any(HalRepresentation.class));
+    verify(sizeService, never()).calculate(repository);
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:pull:1")
+  void shouldNotEmbedSizeIfDisabled() {
+    enricher.enrich(context, appender);
+
+    verify(appender, never()).appendEmbedded(anyString(), any(HalRepresentation.class));
+    verifyNoInteractions(sizeService);
+  }
 }
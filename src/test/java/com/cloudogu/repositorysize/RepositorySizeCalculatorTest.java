@@ -16,11 +16,14 @@
 
 package com.cloudogu.repositorysize;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Answers;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.repository.Repository;
@@ -31,8 +34,21 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -42,10 +58,18 @@ class RepositorySizeCalculatorTest {
 
   @Mock(answer = Answers.RETURNS_DEEP_STUBS)
   private RepositoryLocationResolver locationResolver;
+  @Mock
+  private RepositorySizeConfig config;
+
+  private final Set<RepositorySizeProvider> providers = new LinkedHashSet<>();
 
-  @InjectMocks
   private RepositorySizeCalculator calculator;
 
+  @BeforeEach
+  void setUpCalculator() {
+    calculator = new RepositorySizeCalculator(locationResolver, config, providers, Runnable::run);
+  }
+
   @Test
   void shouldReturnZeroIfDirNotFound(@TempDir Path repoPath) {
     when(locationResolver.forClass(Path.class).getLocation(repository.getId())).thenReturn(repoPath);
@@ -107,4 +131,196 @@ class RepositorySizeCalculatorTest {
     assertThat(calculator.getTempSize(repository)).isEqualTo(3.0);
   }
 
+  @Test
+  void shouldCollectLargestFilesWithPathRelativeToRepository(@TempDir Path repoPath) throws IOException {
+    when(locationResolver.forClass(Path.class).getLocation(repository.getId())).thenReturn(repoPath);
+    when(config.getLargestFilesLimit()).thenReturn(1);
+    Files.createDirectories(repoPath.resolve("store").resolve("blob").resolve("git-lfs"));
+    try (RandomAccessFile f1 = new RandomAccessFile(repoPath + "/store/blob/git-lfs/small.blob", "rw");
+         RandomAccessFile f2 = new RandomAccessFile(repoPath + "/store/blob/git-lfs/big.blob", "rw")) {
+      f1.setLength(1);
+      f2.setLength(42);
+    }
+
+    CategorySize size = calculator.calculate(repository, SizeCategory.LFS);
+
+    assertThat(size.getSizeInBytes()).isEqualTo(43.0);
+    assertThat(size.getLargestFiles())
+      .singleElement()
+      .satisfies(file -> {
+        assertThat(file.getPath()).isEqualTo(Path.of("store", "blob", "git-lfs", "big.blob").toString());
+        assertThat(file.getSizeInBytes()).isEqualTo(42);
+        assertThat(file.getCategory()).isEqualTo(SizeCategory.LFS);
+      });
+  }
+
+  @Test
+  void shouldShareQueuedRefresh() {
+    List<Runnable> queue = new ArrayList<>();
+    RepositorySizeCalculator queuedCalculator = new RepositorySizeCalculator(locationResolver, config, providers, queue::add);
+
+    CompletableFuture<CategorySize> first = queuedCalculator.scheduleRefresh(repository, SizeCategory.STORE);
+    CompletableFuture<CategorySize> second = queuedCalculator.scheduleRefresh(repository, SizeCategory.STORE);
+
+    assertThat(second).isSameAs(first);
+    assertThat(queue).hasSize(2);
+    assertThat(first).isNotDone();
+  }
+
+  @Test
+  void shouldShareRunningCalculationBetweenInteractiveCallers(@TempDir Path repoPath) throws Exception {
+    when(locationResolver.forClass(Path.class).getLocation(repository.getId())).thenReturn(repoPath);
+    CountDownLatch walking = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger invocations = new AtomicInteger();
+    CategorySize providedSize = new CategorySize(4096, List.of());
+    providers.add((repo, category, location, limit) -> {
+      invocations.incrementAndGet();
+      walking.countDown();
+      awaitUninterruptibly(release);
+      return Optional.of(providedSize);
+    });
+
+    FutureTask<CategorySize> first = new FutureTask<>(() -> calculator.calculate(repository, SizeCategory.REPOSITORY));
+    new Thread(first).start();
+    assertThat(walking.await(10, TimeUnit.SECONDS)).isTrue();
+
+    FutureTask<CategorySize> second = new FutureTask<>(() -> calculator.calculate(repository, SizeCategory.REPOSITORY));
+    Thread secondThread = new Thread(second);
+    secondThread.start();
+    // the second caller parks while it waits for the result of the first one
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (secondThread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(calculator.joinRunning(repository, Set.of(SizeCategory.LFS))).isEmpty();
+    release.countDown();
+
+    assertThat(first.get(10, TimeUnit.SECONDS)).isSameAs(providedSize);
+    assertThat(second.get(10, TimeUnit.SECONDS)).isSameAs(providedSize);
+    assertThat(invocations).hasValue(1);
+  }
+
+  @Test
+  void shouldCompleteCallersIfCalculationFailsWithError(@TempDir Path repoPath) {
+    when(locationResolver.forClass(Path.class).getLocation(repository.getId())).thenReturn(repoPath);
+    providers.add((repo, category, location, limit) -> {
+      throw new OutOfMemoryError("walk failed");
+    });
+    List<Runnable> queue = new ArrayList<>();
+    RepositorySizeCalculator queuedCalculator = new RepositorySizeCalculator(locationResolver, config, providers, queue::add);
+
+    CompletableFuture<CategorySize> refresh = queuedCalculator.scheduleRefresh(repository, SizeCategory.STORE);
+    queue.forEach(Runnable::run);
+
+    assertThat(refresh).isCompletedExceptionally();
+  }
+
+  @Test
+  void shouldCancelQueuedRefreshesOnShutdown() {
+    List<Runnable> queue = new ArrayList<>();
+    RepositorySizeCalculator queuedCalculator = new RepositorySizeCalculator(locationResolver, config, providers, queue::add);
+
+    CompletableFuture<CategorySize> refresh = queuedCalculator.scheduleRefresh(repository, SizeCategory.STORE);
+    queuedCalculator.contextDestroyed(null);
+
+    assertThat(refresh).isCancelled();
+  }
+
+  @Test
+  void shouldNotJoinQueuedRefresh() {
+    List<Runnable> queue = new ArrayList<>();
+    RepositorySizeCalculator queuedCalculator = new RepositorySizeCalculator(locationResolver, config, providers, queue::add);
+
+    CompletableFuture<CategorySize> refresh = queuedCalculator.scheduleRefresh(repository, SizeCategory.STORE);
+
+    assertThat(queuedCalculator.joinRunning(repository, Set.of(SizeCategory.STORE))).isEmpty();
+    assertThat(refresh).isNotDone();
+  }
+
+  @Test
+  void shouldTakeOverQueuedRefreshForInteractiveCalculation(@TempDir Path repoPath) throws IOException {
+    when(locationResolver.forClass(Path.class).getLocation(repository.getId())).thenReturn(repoPath);
+    Files.createDirectory(repoPath.resolve("data"));
+    try (RandomAccessFile f = new RandomAccessFile(repoPath + "/data/repo_data", "rw")) {
+      f.setLength(1024);
+    }
+    List<Runnable> queue = new ArrayList<>();
+    RepositorySizeCalculator queuedCalculator = new RepositorySizeCalculator(locationResolver, config, providers, queue::add);
+
+    CompletableFuture<CategorySize> refresh = queuedCalculator.scheduleRefresh(repository, SizeCategory.REPOSITORY);
+    CategorySize size = queuedCalculator.calculate(repository, SizeCategory.REPOSITORY);
+
+    assertThat(size.getSizeInBytes()).isEqualTo(1024.0);
+    assertThat(refresh).isCompletedWithValue(size);
+
+    queue.forEach(Runnable::run);
+    verify(locationResolver.forClass(Path.class), times(1)).getLocation(repository.getId());
+  }
+
+  @Test
+  void shouldUseSizeOfResponsibleProvider(@TempDir Path repoPath) throws IOException {
+    when(locationResolver.forClass(Path.class).getLocation(repository.getId())).thenReturn(repoPath);
+    when(config.getLargestFilesLimit()).thenReturn(20);
+    Files.createDirectory(repoPath.resolve("data"));
+    try (RandomAccessFile f = new RandomAccessFile(repoPath + "/data/repo_data", "rw")) {
+      f.setLength(1024);
+    }
+    CategorySize providedSize = new CategorySize(4096, List.of());
+    RepositorySizeProvider provider = mock(RepositorySizeProvider.class);
+    when(provider.calculate(repository, SizeCategory.REPOSITORY, repoPath, 20)).thenReturn(Optional.of(providedSize));
+    providers.add(provider);
+
+    assertThat(calculator.calculate(repository, SizeCategory.REPOSITORY)).isSameAs(providedSize);
+  }
+
+  @Test
+  void shouldWalkDirectoriesIfNoProviderIsResponsible(@TempDir Path repoPath) throws IOException {
+    when(locationResolver.forClass(Path.class).getLocation(repository.getId())).thenReturn(repoPath);
+    Files.createDirectory(repoPath.resolve("data"));
+    try (RandomAccessFile f = new RandomAccessFile(repoPath + "/data/repo_data", "rw")) {
+      f.setLength(1024);
+    }
+    RepositorySizeProvider provider = mock(RepositorySizeProvider.class);
+    when(provider.calculate(repository, SizeCategory.REPOSITORY, repoPath, 0)).thenReturn(Optional.empty());
+    providers.add(provider);
+
+    assertThat(calculator.calculate(repository, SizeCategory.REPOSITORY).getSizeInBytes()).isEqualTo(1024.0);
+  }
+
+  @Test
+  void shouldReportWalkOfProviderInFlightRecorderEvent(@TempDir Path repoPath) throws IOException {
+    when(locationResolver.forClass(Path.class).getLocation(repository.getId())).thenReturn(repoPath);
+    CategorySize providedSize = new CategorySize(4096, List.of(), ScanErrors.NONE, new WalkStatistics(3, 2, 1000));
+    providers.add((repo, category, location, largestFilesLimit) -> Optional.of(providedSize));
+    // the dump is written after the calculation and does not influence the result
+    Path dump = repoPath.resolve("scan.jfr");
+
+    try (Recording recording = new Recording()) {
+      recording.enable(RepositorySizeScanEvent.class);
+      recording.start();
+      calculator.calculate(repository, SizeCategory.REPOSITORY);
+      recording.stop();
+      recording.dump(dump);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+    assertThat(events)
+      .filteredOn(event -> event.getEventType().getName().equals("com.cloudogu.repositorysize.RepositorySizeScan"))
+      .singleElement()
+      .satisfies(event -> {
+        assertThat(event.getLong("files")).isEqualTo(3);
+        assertThat(event.getLong("directories")).isEqualTo(2);
+        assertThat(event.getLong("bytes")).isEqualTo(4096);
+        assertThat(event.getLong("fileSystemTime")).isEqualTo(1000);
+      });
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RepositorySizeChangeLogTest {
+
+  private final Repository puzzle = RepositoryTestData.create42Puzzle();
+  private final Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+
+  @Mock
+  private RepositorySizeConfig config;
+
+  private RepositorySizeChangeLog changeLog;
+
+  @BeforeEach
+  void initChangeLog() {
+    when(config.getChangeLogCapacity()).thenReturn(3);
+    changeLog = new RepositorySizeChangeLog(config);
+    puzzle.setId("1");
+    heartOfGold.setId("2");
+  }
+
+  @Test
+  void shouldReturnNoChangesForCurrentToken() {
+    changeLog.recordChange(puzzle);
+
+    assertThat(changeLog.getChangesSince(changeLog.getCurrentToken()))
+      .hasValueSatisfying(changes -> assertThat(changes.changes()).isEmpty());
+  }
+
+  @Test
+  void shouldReturnLatestChangeOfEachRepository() {
+    String token = changeLog.getCurrentToken();
+    changeLog.recordChange(puzzle);
+    changeLog.recordChange(heartOfGold);
+    changeLog.recordDeletion(puzzle, RepositorySizeChangeLog.Readers.NONE);
+
+    assertThat(changeLog.getChangesSince(token))
+      .hasValueSatisfying(changes -> {
+        assertThat(changes.changes())
+          .extracting(RepositorySizeChangeLog.Change::repositoryId, RepositorySizeChangeLog.Change::deleted)
+          .containsExactly(
+            tuple("2", false),
+            tuple("1", true)
+          );
+        assertThat(changes.token()).isEqualTo(changeLog.getCurrentToken());
+      });
+  }
+
+  @Test
+  void shouldRequireResyncIfChangesWereDropped() {
+    String token = changeLog.getCurrentToken();
+    for (int i = 0; i < 4; i++) {
+      changeLog.recordChange(puzzle);
+    }
+
+    assertThat(changeLog.getChangesSince(token)).isEmpty();
+  }
+
+  @Test
+  void shouldReturnChangesUpToCapacity() {
+    changeLog.recordChange(heartOfGold);
+    String token = changeLog.getCurrentToken();
+    for (int i = 0; i < 3; i++) {
+      changeLog.recordChange(puzzle);
+    }
+
+    assertThat(changeLog.getChangesSince(token))
+      .hasValueSatisfying(changes -> assertThat(changes.changes()).hasSize(1));
+  }
+
+  @Test
+  void shouldRequireResyncForTokenOfOtherEpoch() {
+    RepositorySizeChangeLog restarted = new RepositorySizeChangeLog(config);
+
+    assertThat(changeLog.getChangesSince(restarted.getCurrentToken())).isEmpty();
+    assertThat(changeLog.getChangesSince(null)).isEmpty();
+    assertThat(changeLog.getChangesSince("garbage")).isEmpty();
+  }
+
+  @Test
+  void shouldRequireResyncForTokenFromTheFuture() {
+    String token = changeLog.getCurrentToken();
+    String future = token.substring(0, token.lastIndexOf('.') + 1) + 42;
+
+    assertThat(changeLog.getChangesSince(future)).isEmpty();
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.github.sdorra.jse.ShiroExtension;
+import org.github.sdorra.jse.SubjectAware;
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.group.GroupCollector;
+import sonia.scm.repository.NamespaceAndName;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryLocationResolver;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.web.RestDispatcher;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.cloudogu.repositorysize.TestFiles.createFile;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Drives the size endpoints against a generated instance with thousands of repositories and reports time to
+ * first byte, latency percentiles and the peak heap usage. The test is only run on demand:
+ * <pre>
+ * ./gradlew test --tests '*RepositorySizeLoadTest' -Dscm.repositorySize.loadTest=true
+ * </pre>
+ * The size of the instance and the load can be changed with {@code scm.repositorySize.loadTest.repositories},
+ * {@code .clients} and {@code .requests}.
+ */
+@EnabledIfSystemProperty(named = "scm.repositorySize.loadTest", matches = "true")
+@ExtendWith(ShiroExtension.class)
+@SubjectAware(value = "trillian", permissions = "repository:pull:*")
+class RepositorySizeLoadTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RepositorySizeLoadTest.class);
+
+  private static final String PREFIX = "scm.repositorySize.loadTest.";
+  private static final int REPOSITORIES = Integer.getInteger(PREFIX + "repositories", 5000);
+  private static final int CLIENTS = Integer.getInteger(PREFIX + "clients", 8);
+  private static final int REQUESTS = Integer.getInteger(PREFIX + "requests", 500);
+
+  @TempDir
+  static Path instanceDirectory;
+
+  private static final List<Repository> repositories = new ArrayList<>();
+
+  private RestDispatcher dispatcher;
+
+  @BeforeAll
+  static void generateInstance() throws IOException {
+    Random random = new Random(42);
+    for (int i = 0; i < REPOSITORIES; i++) {
+      Repository repository = new Repository(String.valueOf(i), "git", "namespace-" + (i % 50), "repository-" + i);
+      generateRepository(instanceDirectory.resolve(repository.getId()), i, random);
+      repositories.add(repository);
+    }
+  }
+
+  private static void generateRepository(Path location, int index, Random random) throws IOException {
+    // pack sizes are spread over several orders of magnitude like on real instances, files are sparse
+    createFile(location.resolve("data/objects/pack/pack-" + index + ".pack"), (long) Math.pow(10, 3 + random.nextDouble() * 6));
+    createFile(location.resolve("data/objects/pack/pack-" + index + ".idx"), 1024 + random.nextInt(1024 * 1024));
+    for (int i = 0; i < random.nextInt(40); i++) {
+      createFile(location.resolve(String.format("data/objects/%02x/%038x", i, random.nextLong())), random.nextInt(8192));
+    }
+    createFile(location.resolve("data/refs/heads/main"), 41);
+    createFile(location.resolve("data/HEAD"), 23);
+    createFile(location.resolve("store/config/repository-config.xml"), 512);
+    for (int i = 0; i < random.nextInt(20); i++) {
+      createFile(location.resolve("store/data/pull-request/" + i + ".xml"), random.nextInt(4096));
+    }
+    if (index % 5 == 0) {
+      for (int i = 0; i < 1 + random.nextInt(30); i++) {
+        createFile(location.resolve("store/blob/git-lfs/" + i + ".blob"), random.nextInt(50 * 1024 * 1024));
+      }
+    }
+    if (index % 20 == 0) {
+      createFile(location.resolve("store/blob/repository-export/export.tar.gz"), random.nextInt(100 * 1024 * 1024));
+    }
+    if (index % 10 == 0) {
+      for (int i = 0; i < random.nextInt(100); i++) {
+        createFile(location.resolve("work/" + (i % 3) + "/file-" + i), random.nextInt(16 * 1024));
+      }
+    }
+  }
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void initResources() {
+    // stub only mocks do not record invocations, which would distort the heap usage
+    RepositoryLocationResolver.RepositoryLocationResolverInstance<Path> locations =
+      mock(RepositoryLocationResolver.RepositoryLocationResolverInstance.class, withSettings().stubOnly());
+    when(locations.getLocation(anyString())).thenAnswer(invocation -> instanceDirectory.resolve(invocation.<String>getArgument(0)));
+    RepositoryLocationResolver locationResolver = mock(RepositoryLocationResolver.class, withSettings().stubOnly());
+    when(locationResolver.forClass(Path.class)).thenReturn(locations);
+
+    RepositorySizeConfig config = mock(RepositorySizeConfig.class, withSettings().stubOnly());
+    when(config.getLargestFilesLimit()).thenReturn(20);
+    when(config.getMaxConcurrentFullScans()).thenReturn(CLIENTS);
+    when(config.getMaxConcurrentRepositoryScans()).thenReturn(CLIENTS);
+    when(config.getRetryAfterSeconds()).thenReturn(30);
+
+    Map<NamespaceAndName, Repository> byName = new HashMap<>();
+    repositories.forEach(repository -> byName.put(repository.getNamespaceAndName(), repository));
+    RepositoryManager repositoryManager = mock(RepositoryManager.class, withSettings().stubOnly());
+    when(repositoryManager.getAll()).thenReturn(repositories);
+    when(repositoryManager.get(any(NamespaceAndName.class))).thenAnswer(invocation -> byName.get(invocation.<NamespaceAndName>getArgument(0)));
+
+    RepositorySizeStore store = mock(RepositorySizeStore.class, withSettings().stubOnly());
+    RepositorySizeService service = new RepositorySizeService(new RepositorySizeCalculator(locationResolver, config, Set.of()), store, config, new RepositorySizeChangeLog(config));
+    ScanAdmission admission = new ScanAdmission(config);
+
+    dispatcher = new RestDispatcher();
+    dispatcher.addSingletonResource(new SizeResource(service, repositoryManager, JsonMapper.builder().findAndAddModules().build(), admission, config, mock(GroupCollector.class, withSettings().stubOnly())));
+    dispatcher.addSingletonResource(new RepositorySizeResource(service, repositoryManager, admission));
+  }
+
+  @Test
+  void shouldStreamSizesOfAllRepositories() throws Exception {
+    Report report = run("GET v2/repository-size", CLIENTS, 2, () -> MockHttpRequest.get("/v2/repository-size/"));
+
+    assertThat(report.statuses()).containsOnly(200);
+    TimingResponse response = invoke(MockHttpRequest.get("/v2/repository-size/"));
+    assertThat(new ObjectMapper().readTree(response.getOutput())).hasSize(REPOSITORIES);
+  }
+
+  @Test
+  void shouldStreamColumnarSizesOfAllRepositories() throws Exception {
+    Report report = run("GET v2/repository-size (columnar)", CLIENTS, 2,
+      () -> MockHttpRequest.get("/v2/repository-size/").accept(SizeResource.COLUMNAR_MEDIA_TYPE));
+
+    assertThat(report.statuses()).containsOnly(200);
+  }
+
+  @Test
+  void shouldServeSizesOfSingleRepositories() throws Exception {
+    Report report = run("GET v2/repository-size/{namespace}/{name}", CLIENTS, REQUESTS, () -> {
+      Repository repository = repositories.get(ThreadLocalRandom.current().nextInt(repositories.size()));
+      return MockHttpRequest.get("/v2/repository-size/" + repository.getNamespaceAndName());
+    });
+
+    // a busy repository scan may be rejected, everything else has to succeed
+    assertThat(report.statuses()).isSubsetOf(200, 429);
+  }
+
+  private Report run(String name, int clients, int requestsPerClient, RequestFactory requestFactory) throws Exception {
+    List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+      .filter(pool -> pool.getType() == MemoryType.HEAP)
+      .toList();
+    System.gc();
+    long heapBefore = heapPools.stream().mapToLong(pool -> pool.getUsage().getUsed()).sum();
+    heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+    Subject subject = SecurityUtils.getSubject();
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    List<Future<List<Sample>>> futures = new ArrayList<>();
+    long startedAt = System.nanoTime();
+    try {
+      for (int client = 0; client < clients; client++) {
+        Callable<List<Sample>> callable = () -> {
+          List<Sample> samples = new ArrayList<>();
+          for (int i = 0; i < requestsPerClient; i++) {
+            long requestedAt = System.nanoTime();
+            TimingResponse response = invoke(requestFactory.create());
+            long finishedAt = System.nanoTime();
+            long firstByteAt = response.firstByteAt == 0 ? finishedAt : response.firstByteAt;
+            samples.add(new Sample(response.getStatus(), firstByteAt - requestedAt, finishedAt - requestedAt));
+          }
+          return samples;
+        };
+        futures.add(executor.submit(subject.associateWith(callable)));
+      }
+      List<Sample> samples = new ArrayList<>();
+      for (Future<List<Sample>> future : futures) {
+        samples.addAll(future.get());
+      }
+      long duration = System.nanoTime() - startedAt;
+      // the peaks of the pools are not reached at the same time, so their sum is an upper bound
+      long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+      Report report = new Report(samples, duration, heapBefore, peakHeap);
+      report.log(name, clients);
+      return report;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private TimingResponse invoke(MockHttpRequest request) {
+    TimingResponse response = new TimingResponse();
+    dispatcher.invoke(request, response);
+    return response;
+  }
+
+  @FunctionalInterface
+  private interface RequestFactory {
+    MockHttpRequest create() throws Exception;
+  }
+
+  private record Sample(int status, long firstByteNanos, long totalNanos) {
+  }
+
+  private record Report(List<Sample> samples, long durationNanos, long heapBefore, long peakHeap) {
+
+    List<Integer> statuses() {
+      return samples.stream().map(Sample::status).distinct().toList();
+    }
+
+    void log(String name, int clients) {
+      long[] firstByte = samples.stream().mapToLong(Sample::firstByteNanos).sorted().toArray();
+      long[] total = samples.stream().mapToLong(Sample::totalNanos).sorted().toArray();
+      LOG.info(
+        "{}: {} repositories, {} clients, {} requests in {} ms ({} rejected), "
+          + "time to first byte ms: {}, latency ms: {}, heap: {} MB before, {} MB peak",
+        name, REPOSITORIES, clients, samples.size(), durationNanos / 1_000_000,
+        samples.stream().filter(sample -> sample.status() == 429).count(),
+        percentiles(firstByte), percentiles(total),
+        heapBefore / (1024 * 1024), peakHeap / (1024 * 1024)
+      );
+    }
+
+    private static String percentiles(long[] sortedNanos) {
+      return String.format(
+        "p50=%d p90=%d p99=%d max=%d",
+        percentile(sortedNanos, 50), percentile(sortedNanos, 90), percentile(sortedNanos, 99),
+        sortedNanos.length == 0 ? 0 : sortedNanos[sortedNanos.length - 1] / 1_000_000
+      );
+    }
+
+    private static long percentile(long[] sortedNanos, int percentile) {
+      if (sortedNanos.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+      return sortedNanos[Math.max(0, index)] / 1_000_000;
+    }
+  }
+
+  /**
+   * Records when the first bytes of the body are written, the size resources flush after every repository.
+   */
+  private static class TimingResponse extends MockHttpResponse {
+
+    private volatile long firstByteAt;
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      return new FilterOutputStream(super.getOutputStream()) {
+        @Override
+        public void write(int b) throws IOException {
+          recordFirstByte();
+          out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          recordFirstByte();
+          out.write(b, off, len);
+        }
+      };
+    }
+
+    private void recordFirstByte() {
+      if (firstByteAt == 0) {
+        firstByteAt = System.nanoTime();
+      }
+    }
+  }
+}
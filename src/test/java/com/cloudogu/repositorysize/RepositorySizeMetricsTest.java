@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.schedule.Scheduler;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RepositorySizeMetricsTest {
+
+  @Mock
+  private RepositorySizeStore store;
+  @Mock
+  private RepositorySizeConfig config;
+  @Mock
+  private Scheduler scheduler;
+
+  private MeterRegistry registry;
+  private RepositorySizeMetrics metrics;
+
+  @BeforeEach
+  void initMetrics() {
+    registry = new SimpleMeterRegistry();
+    metrics = new RepositorySizeMetrics(registry, store, config, scheduler);
+  }
+
+  @Test
+  void shouldExportLargestRepositories() {
+    when(config.getMetricsMode()).thenReturn("repository");
+    when(config.getMetricsLimit()).thenReturn(1);
+    when(store.getAll()).thenReturn(List.of(
+      snapshot("hitchhiker", "small", 10),
+      snapshot("hitchhiker", "big", 100)
+    ));
+
+    metrics.update();
+
+    assertThat(gauge("namespace", "hitchhiker", "repository", "big", "category", "total").value()).isEqualTo(100);
+    assertThat(gauge("namespace", "hitchhiker", "repository", "big", "category", "lfs").value()).isEqualTo(1);
+    assertThat(registry.find(RepositorySizeMetrics.METRIC).tag("repository", "small").gauge()).isNull();
+    assertThat(registry.find(RepositorySizeMetrics.METRIC).tag("category", "temp").gauge()).isNull();
+  }
+
+  @Test
+  void shouldExportSumsByNamespace() {
+    when(config.getMetricsMode()).thenReturn("namespace");
+    when(store.getAll()).thenReturn(List.of(
+      snapshot("hitchhiker", "small", 10),
+      snapshot("hitchhiker", "big", 100),
+      snapshot("vogons", "poetry", 1)
+    ));
+
+    metrics.update();
+
+    assertThat(gauge("namespace", "hitchhiker", "category", "total").value()).isEqualTo(110);
+    assertThat(gauge("namespace", "hitchhiker", "category", "lfs").value()).isEqualTo(2);
+    assertThat(gauge("namespace", "hitchhiker", "category", "temp").value()).isZero();
+    assertThat(gauge("namespace", "vogons", "category", "total").value()).isEqualTo(1);
+    assertThat(registry.find(RepositorySizeMetrics.METRIC).tagKeys("repository").gauge()).isNull();
+  }
+
+  @Test
+  void shouldNotScheduleUpdatesIfDisabled() {
+    when(config.getMetricsMode()).thenReturn("none");
+
+    metrics.contextInitialized(null);
+
+    verify(scheduler, never()).schedule(anyString(), any(Runnable.class));
+  }
+
+  private Gauge gauge(String... tags) {
+    return registry.get(RepositorySizeMetrics.METRIC).tags(tags).gauge();
+  }
+
+  private RepositorySizeSnapshot snapshot(String namespace, String name, double total) {
+    return new RepositorySizeSnapshot(namespace, name, total, total - 1, 0, 1, -1, List.of(), 0, 0);
+  }
+}
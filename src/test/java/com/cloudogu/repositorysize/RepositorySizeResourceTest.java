@@ -18,6 +18,8 @@ package com.cloudogu.repositorysize;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.inject.Provider;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
 import org.github.sdorra.jse.ShiroExtension;
 import org.github.sdorra.jse.SubjectAware;
 import org.jboss.resteasy.mock.MockHttpRequest;
@@ -25,11 +27,13 @@ import org.jboss.resteasy.mock.MockHttpResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.api.v2.resources.ScmPathInfoStore;
 import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryLocationResolver;
 import sonia.scm.repository.RepositoryManager;
 import sonia.scm.repository.RepositoryTestData;
 import sonia.scm.web.JsonMockHttpResponse;
@@ -38,9 +42,24 @@ import sonia.scm.web.RestDispatcher;
 import jakarta.servlet.http.HttpServletResponse;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith({MockitoExtension.class, ShiroExtension.class})
@@ -52,19 +71,28 @@ class RepositorySizeResourceTest {
   @Mock
   private RepositorySizeCalculator sizeCalculator;
   @Mock
+  private RepositorySizeStore sizeStore;
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private RepositoryLocationResolver locationResolver;
+  @Mock
+  private RepositorySizeConfig config;
+  @Mock
   private RepositoryManager repositoryManager;
   @Mock
   private Provider<ScmPathInfoStore> pathInfoStoreProvider;
   @Mock
   private ScmPathInfoStore scmPathInfoStore;
 
-  @InjectMocks
-  private RepositorySizeResource resource;
-
   private RestDispatcher dispatcher;
+  private ScanAdmission admission;
 
   @BeforeEach
   void initResource() {
+    lenient().when(config.getMaxConcurrentRepositoryScans()).thenReturn(1);
+    lenient().when(config.getRetryAfterSeconds()).thenReturn(42);
+    admission = new ScanAdmission(config);
+    RepositorySizeChangeLog changeLog = new RepositorySizeChangeLog(config);
+    RepositorySizeResource resource = new RepositorySizeResource(new RepositorySizeService(sizeCalculator, sizeStore, config, changeLog), repositoryManager, admission);
     dispatcher = new RestDispatcher();
     dispatcher.addSingletonResource(resource);
     lenient().when(pathInfoStoreProvider.get()).thenReturn(scmPathInfoStore);
@@ -87,10 +115,10 @@ class RepositorySizeResourceTest {
   @Test
   @SubjectAware(permissions = "repository:pull:1")
   void shouldGetRepoSize() throws URISyntaxException {
-    when(sizeCalculator.getRepoSize(REPOSITORY)).thenReturn(1.0);
-    when(sizeCalculator.getStoreSize(REPOSITORY)).thenReturn(9.0);
-    when(sizeCalculator.getTempSize(REPOSITORY)).thenReturn(2.0);
-    when(sizeCalculator.getLfsSize(REPOSITORY)).thenReturn(3.0);
+    mockCategorySize(SizeCategory.REPOSITORY, 1.0);
+    mockCategorySize(SizeCategory.STORE, 9.0);
+    mockCategorySize(SizeCategory.TEMP, 2.0);
+    mockCategorySize(SizeCategory.LFS, 3.0);
 
     MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/" + REPOSITORY.getNamespaceAndName().toString());
     JsonMockHttpResponse response = new JsonMockHttpResponse();
@@ -106,6 +134,200 @@ class RepositorySizeResourceTest {
     assertThat(json.get("storeSizeInBytes").asDouble()).isEqualTo(4.0);
     assertThat(json.get("lfsSizeInBytes").asDouble()).isEqualTo(3.0);
     assertThat(json.get("tempSizeInBytes").asDouble()).isEqualTo(2.0);
+    verify(sizeStore).put(eq("1"), any());
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldCalculateOnlySelectedFields() throws URISyntaxException {
+    mockCategorySize(SizeCategory.LFS, 3.0);
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/" + REPOSITORY.getNamespaceAndName() + "?fields=lfsSizeInBytes");
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    JsonNode json = response.getContentAsJson();
+    assertThat(json.get("lfsSizeInBytes").asDouble()).isEqualTo(3.0);
+    assertThat(json.has("totalSizeInBytes")).isFalse();
+    assertThat(json.has("repoSizeInBytes")).isFalse();
+    assertThat(json.has("storeSizeInBytes")).isFalse();
+    assertThat(json.has("tempSizeInBytes")).isFalse();
+    verify(sizeCalculator, never()).calculate(REPOSITORY, SizeCategory.REPOSITORY);
+    verify(sizeCalculator, never()).calculate(REPOSITORY, SizeCategory.STORE);
+    verify(sizeStore, never()).put(any(), any());
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldRejectUnknownFields() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/" + REPOSITORY.getNamespaceAndName() + "?fields=sizeOfTheUniverse");
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_BAD_REQUEST);
+    verifyNoInteractions(sizeCalculator);
+  }
+
+  @Test
+  void shouldNotGetLargestFilesWithoutPermission() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/" + REPOSITORY.getNamespaceAndName() + "/largest-files");
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_FORBIDDEN);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldGetLargestFilesFromLastCalculation() throws URISyntaxException {
+    LargestFile file = new LargestFile("data/objects/pack/big.pack", 42, SizeCategory.REPOSITORY, 0);
+    when(sizeStore.get("1")).thenReturn(Optional.of(new RepositorySizeSnapshot("hitchhiker", "42Puzzle", 42, 42, 0, 0, 0, List.of(file), 0, 0)));
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/" + REPOSITORY.getNamespaceAndName() + "/largest-files");
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    JsonNode files = response.getContentAsJson().get("files");
+    assertThat(files).hasSize(1);
+    assertThat(files.get(0).get("path").textValue()).isEqualTo("data/objects/pack/big.pack");
+    assertThat(files.get(0).get("sizeInBytes").asLong()).isEqualTo(42);
+    assertThat(files.get(0).get("category").textValue()).isEqualTo("REPOSITORY");
+    verifyNoInteractions(sizeCalculator);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldReportUnreadableFiles() throws URISyntaxException {
+    mockCategorySize(SizeCategory.REPOSITORY, 1.0);
+    mockCategorySize(SizeCategory.TEMP, 2.0);
+    mockCategorySize(SizeCategory.LFS, 3.0);
+    when(sizeCalculator.calculate(REPOSITORY, SizeCategory.STORE)).thenReturn(new CategorySize(9.0, List.of(), new ScanErrors(7, Map.of("AccessDeniedException", 7L), List.of())));
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/" + REPOSITORY.getNamespaceAndName().toString());
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsJson().get("errorCount").asLong()).isEqualTo(7);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldCalculateLargestFilesIfNothingWasCalculatedBefore() throws URISyntaxException {
+    when(sizeStore.get("1")).thenReturn(Optional.empty());
+    LargestFile file = new LargestFile("store/blob/git-lfs/lfs.blob", 3, SizeCategory.LFS, 0);
+    mockCategorySize(SizeCategory.REPOSITORY, 1.0);
+    mockCategorySize(SizeCategory.STORE, 9.0);
+    mockCategorySize(SizeCategory.TEMP, 2.0);
+    when(sizeCalculator.calculate(REPOSITORY, SizeCategory.LFS)).thenReturn(new CategorySize(3.0, List.of(file)));
+    when(config.getLargestFilesLimit()).thenReturn(10);
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/" + REPOSITORY.getNamespaceAndName() + "/largest-files");
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    JsonNode files = response.getContentAsJson().get("files");
+    assertThat(files).hasSize(1);
+    assertThat(files.get(0).get("path").textValue()).isEqualTo("store/blob/git-lfs/lfs.blob");
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldRejectRepoSizeIfLimitIsReached() throws URISyntaxException {
+    admission.tryAcquireRepositoryScan();
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/" + REPOSITORY.getNamespaceAndName().toString());
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(429);
+    assertThat(response.getOutputHeaders().getFirst("Retry-After")).hasToString("42");
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldLetCallerWithoutSlotJoinRunningCalculation(@TempDir Path location) throws Exception {
+    when(locationResolver.forClass(Path.class).getLocation("1")).thenReturn(location);
+    CountDownLatch walking = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger walks = new AtomicInteger();
+    RepositorySizeProvider blockingProvider = (repository, category, path, limit) -> {
+      if (category == SizeCategory.REPOSITORY) {
+        walks.incrementAndGet();
+        walking.countDown();
+        awaitUninterruptibly(release);
+      }
+      return Optional.of(new CategorySize(category == SizeCategory.STORE ? 9.0 : 1.0, List.of()));
+    };
+    RepositorySizeCalculator calculator = new RepositorySizeCalculator(locationResolver, config, Set.of(blockingProvider), Runnable::run);
+    RepositorySizeService service = new RepositorySizeService(calculator, sizeStore, config, new RepositorySizeChangeLog(config));
+    RestDispatcher concurrentDispatcher = new RestDispatcher();
+    concurrentDispatcher.addSingletonResource(new RepositorySizeResource(service, repositoryManager, admission));
+
+    Subject subject = SecurityUtils.getSubject();
+    FutureTask<JsonMockHttpResponse> first = new FutureTask<>(subject.associateWith(() -> getRepositorySize(concurrentDispatcher)));
+    new Thread(first).start();
+    assertThat(walking.await(10, TimeUnit.SECONDS)).isTrue();
+
+    // the only slot is taken by the first caller, so the second one can only join
+    FutureTask<JsonMockHttpResponse> second = new FutureTask<>(subject.associateWith(() -> getRepositorySize(concurrentDispatcher)));
+    Thread secondThread = new Thread(second);
+    secondThread.start();
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (secondThread.getState() != Thread.State.WAITING && secondThread.getState() != Thread.State.TERMINATED
+      && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    release.countDown();
+
+    assertThat(first.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    JsonMockHttpResponse secondResponse = second.get(10, TimeUnit.SECONDS);
+    assertThat(secondResponse.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(secondResponse.getContentAsJson().get("totalSizeInBytes").asDouble()).isEqualTo(10.0);
+    assertThat(walks).hasValue(1);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldRejectRepoSizeIfNeededCategoriesAreNotRunning() throws URISyntaxException {
+    admission.tryAcquireRepositoryScan();
+    when(sizeCalculator.joinRunning(REPOSITORY, EnumSet.of(SizeCategory.LFS))).thenReturn(Optional.empty());
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/" + REPOSITORY.getNamespaceAndName() + "?fields=lfsSizeInBytes");
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(429);
+    verify(sizeCalculator, never()).calculate(any(), any());
+  }
+
+  private JsonMockHttpResponse getRepositorySize(RestDispatcher dispatcher) throws URISyntaxException {
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+    dispatcher.invoke(MockHttpRequest.get("/v2/repository-size/" + REPOSITORY.getNamespaceAndName()), response);
+    return response;
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void mockCategorySize(SizeCategory category, double size) {
+    when(sizeCalculator.calculate(REPOSITORY, category)).thenReturn(new CategorySize(size, List.of()));
   }
 
 }
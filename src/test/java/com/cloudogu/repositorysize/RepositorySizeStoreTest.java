@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.store.DataStore;
+import sonia.scm.store.DataStoreFactory;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RepositorySizeStoreTest {
+
+  private final RepositorySizeSnapshot snapshot = new RepositorySizeSnapshot("hitchhiker", "42Puzzle", 42, 42, 0, 0, 0, List.of(), 0, 0);
+
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private DataStoreFactory dataStoreFactory;
+  @Mock
+  private DataStore<RepositorySizeSnapshot> dataStore;
+
+  private RepositorySizeStore store;
+
+  @BeforeEach
+  void initStore() {
+    when(dataStoreFactory.withType(RepositorySizeSnapshot.class).withName("repository-size").build()).thenReturn(dataStore);
+    when(dataStore.getAll()).thenReturn(Map.of());
+    store = new RepositorySizeStore(dataStoreFactory);
+  }
+
+  @Test
+  void shouldStoreSnapshot() {
+    assertThat(store.put("42", snapshot)).isTrue();
+
+    assertThat(store.get("42")).contains(snapshot);
+    verify(dataStore).put("42", snapshot);
+  }
+
+  @Test
+  void shouldDropSnapshotOfDeletedRepository() {
+    store.remove("42");
+
+    assertThat(store.put("42", snapshot)).isFalse();
+
+    assertThat(store.get("42")).isEmpty();
+    assertThat(store.getAll()).isEmpty();
+    verify(dataStore, never()).put(any(), any());
+  }
+}
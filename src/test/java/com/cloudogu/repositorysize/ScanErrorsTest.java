@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class ScanErrorsTest {
+
+  @Test
+  void shouldMergeErrorsByCause() {
+    ScanErrors first = new ScanErrors(2, Map.of("AccessDeniedException", 2L), List.of("a", "b"));
+    ScanErrors second = new ScanErrors(3, Map.of("AccessDeniedException", 1L, "NoSuchFileException", 2L), List.of("c"));
+
+    ScanErrors merged = first.plus(second);
+
+    assertThat(merged.getCount()).isEqualTo(5);
+    assertThat(merged.getByCause()).containsExactly(entry("AccessDeniedException", 3L), entry("NoSuchFileException", 2L));
+    assertThat(merged.getSamples()).containsExactly("a", "b", "c");
+  }
+
+  @Test
+  void shouldLimitSamples() {
+    ScanErrors first = new ScanErrors(4, Map.of("AccessDeniedException", 4L), List.of("a", "b", "c", "d"));
+    ScanErrors second = new ScanErrors(2, Map.of("AccessDeniedException", 2L), List.of("e", "f"));
+
+    assertThat(first.plus(second).getSamples()).containsExactly("a", "b", "c", "d", "e");
+  }
+
+  @Test
+  void shouldKeepErrorsIfNothingIsAdded() {
+    ScanErrors errors = new ScanErrors(1, Map.of("AccessDeniedException", 1L), List.of("a"));
+
+    assertThat(ScanErrors.NONE.plus(errors)).isSameAs(errors);
+    assertThat(errors.plus(ScanErrors.NONE)).isSameAs(errors);
+  }
+}
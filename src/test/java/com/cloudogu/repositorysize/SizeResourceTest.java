@@ -22,13 +22,14 @@ import com.google.inject.Provider;
 import org.github.sdorra.jse.ShiroExtension;
 import org.github.sdorra.jse.SubjectAware;
 import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.api.v2.resources.ScmPathInfoStore;
+import sonia.scm.group.GroupCollector;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryManager;
 import sonia.scm.repository.RepositoryTestData;
@@ -36,12 +37,21 @@ import sonia.scm.web.JsonMockHttpResponse;
 import sonia.scm.web.RestDispatcher;
 
 import jakarta.servlet.http.HttpServletResponse;
+import jakarta.ws.rs.core.MediaType;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith({MockitoExtension.class, ShiroExtension.class})
@@ -54,20 +64,31 @@ class SizeResourceTest {
   @Mock
   private RepositorySizeCalculator sizeCalculator;
   @Mock
+  private RepositorySizeStore sizeStore;
+  @Mock
+  private RepositorySizeConfig config;
+  @Mock
   private RepositoryManager repositoryManager;
   @Mock
   private Provider<ScmPathInfoStore> pathInfoStoreProvider;
   @Mock
   private ScmPathInfoStore scmPathInfoStore;
-
-  @InjectMocks
-  private SizeResource resource;
+  @Mock
+  private GroupCollector groupCollector;
 
   private RestDispatcher dispatcher;
+  private ScanAdmission admission;
+  private RepositorySizeChangeLog changeLog;
 
   @BeforeEach
   void initResource() {
-    resource = new SizeResource(sizeCalculator, repositoryManager, new JsonMapper());
+    lenient().when(config.getMaxConcurrentFullScans()).thenReturn(1);
+    lenient().when(config.getRetryAfterSeconds()).thenReturn(42);
+    lenient().when(config.getChangeLogCapacity()).thenReturn(100);
+    lenient().when(config.getMaxSelectedRepositories()).thenReturn(3);
+    admission = new ScanAdmission(config);
+    changeLog = new RepositorySizeChangeLog(config);
+    SizeResource resource = new SizeResource(new RepositorySizeService(sizeCalculator, sizeStore, config, changeLog), repositoryManager, JsonMapper.builder().findAndAddModules().build(), admission, config, groupCollector);
     dispatcher = new RestDispatcher();
     dispatcher.addSingletonResource(resource);
     lenient().when(pathInfoStoreProvider.get()).thenReturn(scmPathInfoStore);
@@ -75,7 +96,42 @@ class SizeResourceTest {
     REPOSITORY_1.setId("1");
     REPOSITORY_2.setId("2");
 
-    when(repositoryManager.getAll()).thenReturn(List.of(REPOSITORY_1, REPOSITORY_2));
+    lenient().when(repositoryManager.getAll()).thenReturn(List.of(REPOSITORY_1, REPOSITORY_2));
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldRejectFullScanIfLimitIsReached() throws URISyntaxException {
+    admission.tryAcquireFullScan();
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/");
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(429);
+    assertThat(response.getOutputHeaders().getFirst("Retry-After")).hasToString("42");
+    verifyNoInteractions(sizeCalculator);
+  }
+
+  @Test
+  void shouldReleaseFullScanAfterStreaming() throws URISyntaxException {
+    dispatcher.invoke(MockHttpRequest.get("/v2/repository-size/"), new JsonMockHttpResponse());
+
+    assertThat(admission.tryAcquireFullScan()).isTrue();
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldReleaseFullScanIfEntityIsNotWritten() throws URISyntaxException {
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(MockHttpRequest.create("HEAD", "/v2/repository-size/"), response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsString()).isEmpty();
+    verifyNoInteractions(sizeCalculator);
+    assertThat(admission.tryAcquireFullScan()).isTrue();
   }
 
   @Test
@@ -143,11 +199,329 @@ class SizeResourceTest {
     assertThat(repoSize_2.get("tempSizeInBytes").asDouble()).isEqualTo(0.0);
   }
 
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldFilterByNamespaceBeforeCalculation() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/?namespace=vogons");
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsJson()).isEmpty();
+    verifyNoInteractions(sizeCalculator);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldFilterByNamePattern() throws URISyntaxException {
+    mockRepoSizes(REPOSITORY_2, 50.0, 42.0, 0.0, 0.0);
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/?namespace=hitchhiker&name=heart*");
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    JsonNode json = response.getContentAsJson();
+    assertThat(json).hasSize(1);
+    assertThat(json.get(0).get("name").textValue()).isEqualTo(REPOSITORY_2.getName());
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldCalculateOnlySelectedFieldsForAllRepos() throws URISyntaxException {
+    when(sizeCalculator.calculate(REPOSITORY_1, SizeCategory.REPOSITORY)).thenReturn(new CategorySize(1.0, List.of()));
+    when(sizeCalculator.calculate(REPOSITORY_2, SizeCategory.REPOSITORY)).thenReturn(new CategorySize(50.0, List.of()));
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/?fields=repoSizeInBytes");
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    JsonNode json = response.getContentAsJson();
+    assertThat(json.get(0).get("repoSizeInBytes").asDouble()).isEqualTo(1.0);
+    assertThat(json.get(0).has("totalSizeInBytes")).isFalse();
+    assertThat(json.get(1).get("repoSizeInBytes").asDouble()).isEqualTo(50.0);
+    assertThat(json.get(1).has("lfsSizeInBytes")).isFalse();
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldGetSizesInColumnarFormat() throws URISyntaxException {
+    when(sizeCalculator.calculate(REPOSITORY_1, SizeCategory.REPOSITORY)).thenReturn(new CategorySize(1.0, List.of()));
+    when(sizeCalculator.calculate(REPOSITORY_2, SizeCategory.REPOSITORY)).thenReturn(new CategorySize(5_000_000_000.0, List.of()));
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/?fields=repoSizeInBytes")
+      .accept(SizeResource.COLUMNAR_MEDIA_TYPE);
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getOutputHeaders().getFirst("Content-Type")).hasToString(SizeResource.COLUMNAR_MEDIA_TYPE);
+    JsonNode json = response.getContentAsJson();
+    assertThat(json.get("columns")).extracting(JsonNode::textValue).containsExactly("namespace", "name", "repoSizeInBytes", "errorCount");
+    JsonNode rows = json.get("rows");
+    assertThat(rows).hasSize(2);
+    assertThat(rows.get(0).get(1).textValue()).isEqualTo(REPOSITORY_1.getName());
+    assertThat(rows.get(0).get(2).isIntegralNumber()).isTrue();
+    assertThat(rows.get(0).get(2).longValue()).isEqualTo(1L);
+    assertThat(rows.get(1).get(2).longValue()).isEqualTo(5_000_000_000L);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldPreferJsonObjectsForWildcardAccept() throws URISyntaxException {
+    mockRepoSizes(REPOSITORY_1, 1.0, 9.0, 3.0, 2.0);
+    mockRepoSizes(REPOSITORY_2, 50.0, 42.0, 0.0, 0.0);
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/repository-size/").accept("*/*");
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsJson().isArray()).isTrue();
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldRejectEmptySelection() throws URISyntaxException {
+    MockHttpResponse response = new MockHttpResponse();
+    dispatcher.invoke(selectionRequest(), response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_BAD_REQUEST);
+    verifyNoInteractions(sizeCalculator);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldRejectMissingSelection() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest.post("/v2/repository-size/")
+      .contentType(MediaType.APPLICATION_JSON)
+      .content("null".getBytes(StandardCharsets.UTF_8));
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_BAD_REQUEST);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldRejectTooLargeSelection() throws URISyntaxException {
+    MockHttpResponse response = new MockHttpResponse();
+    dispatcher.invoke(selectionRequest(REPOSITORY_1, REPOSITORY_2, REPOSITORY_1, REPOSITORY_2), response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_BAD_REQUEST);
+    assertThat(response.getContentAsString()).contains("3");
+    verifyNoInteractions(sizeCalculator);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldGetSizesOfSelectedPullableRepositories() throws URISyntaxException {
+    mockRepoSizes(REPOSITORY_1, 1.0, 9.0, 3.0, 2.0);
+    when(repositoryManager.get(REPOSITORY_1.getNamespaceAndName())).thenReturn(REPOSITORY_1);
+    when(repositoryManager.get(REPOSITORY_2.getNamespaceAndName())).thenReturn(REPOSITORY_2);
+
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+    dispatcher.invoke(selectionRequest(REPOSITORY_1, REPOSITORY_2, REPOSITORY_1), response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    JsonNode json = response.getContentAsJson();
+    assertThat(json).hasSize(1);
+    assertThat(json.get(0).get("name").textValue()).isEqualTo(REPOSITORY_1.getName());
+    assertThat(json.get(0).get("totalSizeInBytes").asDouble()).isEqualTo(10.0);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldReuseRecentlyCalculatedSizesForSelectedRepositories() throws URISyntaxException {
+    when(config.getMaxAgeSeconds()).thenReturn(60);
+    when(repositoryManager.get(REPOSITORY_2.getNamespaceAndName())).thenReturn(REPOSITORY_2);
+    when(sizeStore.get("2")).thenReturn(Optional.of(
+      new RepositorySizeSnapshot("hitchhiker", "HeartOfGold", 92, 50, 42, 0, 0, List.of(), System.currentTimeMillis(), 0)
+    ));
+
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+    dispatcher.invoke(selectionRequest(REPOSITORY_2), response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(response.getContentAsJson().get(0).get("totalSizeInBytes").asDouble()).isEqualTo(92.0);
+    verifyNoInteractions(sizeCalculator);
+    assertThat(admission.tryAcquireFullScan()).isTrue();
+  }
+
+  @Test
+  void shouldRequestResyncWithoutToken() throws URISyntaxException {
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+    dispatcher.invoke(MockHttpRequest.get("/v2/repository-size/changes"), response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    JsonNode json = response.getContentAsJson();
+    assertThat(json.get("resync").booleanValue()).isTrue();
+    assertThat(json.get("token").textValue()).isEqualTo(changeLog.getCurrentToken());
+  }
+
+  @Test
+  void shouldRequestResyncForUnknownToken() throws URISyntaxException {
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+    dispatcher.invoke(MockHttpRequest.get("/v2/repository-size/changes?since=restarted.42"), response);
+
+    assertThat(response.getContentAsJson().get("resync").booleanValue()).isTrue();
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldReturnChangedSizesSinceToken() throws URISyntaxException {
+    String token = changeLog.getCurrentToken();
+    changeLog.recordChange(REPOSITORY_1);
+    changeLog.recordDeletion(REPOSITORY_2, RepositorySizeChangeLog.Readers.NONE);
+    when(repositoryManager.get("1")).thenReturn(REPOSITORY_1);
+    when(sizeStore.get("1")).thenReturn(Optional.of(
+      new RepositorySizeSnapshot("hitchhiker", "42Puzzle", 42, 42, 0, 0, 0, List.of(), 0, 0)
+    ));
+
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+    dispatcher.invoke(MockHttpRequest.get("/v2/repository-size/changes?since=" + token), response);
+
+    assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    JsonNode json = response.getContentAsJson();
+    assertThat(json.get("resync").booleanValue()).isFalse();
+    assertThat(json.get("token").textValue()).isEqualTo(changeLog.getCurrentToken());
+    assertThat(json.get("changed")).hasSize(1);
+    assertThat(json.get("changed").get(0).get("name").textValue()).isEqualTo(REPOSITORY_1.getName());
+    assertThat(json.get("changed").get(0).get("totalSizeInBytes").asDouble()).isEqualTo(42.0);
+    assertThat(json.get("changed").get(0).has("calculatedAt")).isTrue();
+    assertThat(json.get("deleted")).hasSize(1);
+    assertThat(json.get("deleted").get(0).textValue()).isEqualTo(REPOSITORY_2.getId());
+    verifyNoInteractions(sizeCalculator);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldOnlyReturnChangesOfPullableRepositories() throws URISyntaxException {
+    String token = changeLog.getCurrentToken();
+    changeLog.recordChange(REPOSITORY_2);
+
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+    dispatcher.invoke(MockHttpRequest.get("/v2/repository-size/changes?since=" + token), response);
+
+    JsonNode json = response.getContentAsJson();
+    assertThat(json.get("changed")).isEmpty();
+    verify(repositoryManager, never()).get("2");
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldReturnIdsOfDeletedRepositoriesToFormerReaders() throws URISyntaxException {
+    String token = changeLog.getCurrentToken();
+    changeLog.recordChange(REPOSITORY_2);
+    changeLog.recordDeletion(REPOSITORY_2, new RepositorySizeChangeLog.Readers(Set.of("trillian"), Set.of()));
+    when(groupCollector.collect("trillian")).thenReturn(Set.of());
+
+    JsonNode json = getChanges(token);
+
+    assertThat(json.get("changed")).isEmpty();
+    assertThat(json.get("deleted")).hasSize(1);
+    assertThat(json.get("deleted").get(0).textValue()).isEqualTo(REPOSITORY_2.getId());
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldReturnIdsOfDeletedRepositoriesToMembersOfFormerReadingGroups() throws URISyntaxException {
+    String token = changeLog.getCurrentToken();
+    changeLog.recordDeletion(REPOSITORY_2, new RepositorySizeChangeLog.Readers(Set.of(), Set.of("crew")));
+    when(groupCollector.collect("trillian")).thenReturn(Set.of("_authenticated", "crew"));
+
+    JsonNode json = getChanges(token);
+
+    assertThat(json.get("deleted")).hasSize(1);
+    assertThat(json.get("deleted").get(0).textValue()).isEqualTo(REPOSITORY_2.getId());
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:1")
+  void shouldNotReturnIdsOfDeletedRepositoriesToOthers() throws URISyntaxException {
+    String token = changeLog.getCurrentToken();
+    changeLog.recordDeletion(REPOSITORY_2, new RepositorySizeChangeLog.Readers(Set.of("dent"), Set.of("crew")));
+    when(groupCollector.collect("trillian")).thenReturn(Set.of("_authenticated"));
+
+    JsonNode json = getChanges(token);
+
+    assertThat(json.get("deleted")).isEmpty();
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldReturnIdsOfDeletedRepositoriesToUsersWithGlobalPermission() throws URISyntaxException {
+    String token = changeLog.getCurrentToken();
+    changeLog.recordDeletion(REPOSITORY_2, RepositorySizeChangeLog.Readers.NONE);
+
+    JsonNode json = getChanges(token);
+
+    assertThat(json.get("deleted")).hasSize(1);
+    verifyNoInteractions(groupCollector);
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldNotRecordChangeIfRepositoryWasDeletedDuringCalculation() throws URISyntaxException {
+    String token = changeLog.getCurrentToken();
+    mockRepoSizes(REPOSITORY_1, 1.0, 9.0, 3.0, 2.0);
+    when(repositoryManager.get(REPOSITORY_1.getNamespaceAndName())).thenReturn(REPOSITORY_1);
+    when(sizeStore.put(eq("1"), any())).thenReturn(false);
+
+    dispatcher.invoke(selectionRequest(REPOSITORY_1), new JsonMockHttpResponse());
+
+    assertThat(changeLog.getChangesSince(token))
+      .hasValueSatisfying(changes -> assertThat(changes.changes()).isEmpty());
+  }
+
+  @Test
+  @SubjectAware(permissions = "repository:pull:*")
+  void shouldRecordChangedSizeAfterCalculation() throws URISyntaxException {
+    String token = changeLog.getCurrentToken();
+    mockRepoSizes(REPOSITORY_1, 1.0, 9.0, 3.0, 2.0);
+    when(repositoryManager.get(REPOSITORY_1.getNamespaceAndName())).thenReturn(REPOSITORY_1);
+    when(sizeStore.put(eq("1"), any())).thenReturn(true);
+
+    dispatcher.invoke(selectionRequest(REPOSITORY_1), new JsonMockHttpResponse());
+
+    assertThat(changeLog.getChangesSince(token))
+      .hasValueSatisfying(changes -> assertThat(changes.changes())
+        .extracting(RepositorySizeChangeLog.Change::repositoryId)
+        .containsExactly("1"));
+  }
+
+  private MockHttpRequest selectionRequest(Repository... repositories) throws URISyntaxException {
+    StringBuilder body = new StringBuilder("[");
+    for (Repository repository : repositories) {
+      if (body.length() > 1) {
+        body.append(',');
+      }
+      body.append(String.format("{\"namespace\":\"%s\",\"name\":\"%s\"}", repository.getNamespace(), repository.getName()));
+    }
+    body.append(']');
+    return MockHttpRequest.post("/v2/repository-size/")
+      .contentType(MediaType.APPLICATION_JSON)
+      .content(body.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private JsonNode getChanges(String token) throws URISyntaxException {
+    JsonMockHttpResponse response = new JsonMockHttpResponse();
+    dispatcher.invoke(MockHttpRequest.get("/v2/repository-size/changes?since=" + token), response);
+    return response.getContentAsJson();
+  }
+
   private void mockRepoSizes(Repository repository, double repoSize, double storeSize, double tempSize, double lfsSize) {
-    when(sizeCalculator.getRepoSize(repository)).thenReturn(repoSize);
-    when(sizeCalculator.getStoreSize(repository)).thenReturn(storeSize);
-    when(sizeCalculator.getTempSize(repository)).thenReturn(tempSize);
-    when(sizeCalculator.getLfsSize(repository)).thenReturn(lfsSize);
+    when(sizeCalculator.calculate(repository, SizeCategory.REPOSITORY)).thenReturn(new CategorySize(repoSize, List.of()));
+    when(sizeCalculator.calculate(repository, SizeCategory.STORE)).thenReturn(new CategorySize(storeSize, List.of()));
+    when(sizeCalculator.calculate(repository, SizeCategory.TEMP)).thenReturn(new CategorySize(tempSize, List.of()));
+    when(sizeCalculator.calculate(repository, SizeCategory.LFS)).thenReturn(new CategorySize(lfsSize, List.of()));
   }
 
 }
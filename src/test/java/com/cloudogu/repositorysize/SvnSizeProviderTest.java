@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.repositorysize;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+import static com.cloudogu.repositorysize.TestFiles.createFile;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SvnSizeProviderTest {
+
+  private static final FileTime YESTERDAY = FileTime.from(Instant.now().minus(1, ChronoUnit.DAYS));
+
+  private final SvnSizeProvider provider = new SvnSizeProvider();
+
+  @Test
+  void shouldIgnoreOtherRepositoryTypes(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("git");
+    createFile(location, "data/db/revs/0/1", 10);
+
+    assertThat(provider.calculate(repository, SizeCategory.REPOSITORY, location, 20)).isEmpty();
+  }
+
+  @Test
+  void shouldIgnoreOtherCategories(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("svn");
+    createFile(location, "store/config.xml", 10);
+
+    assertThat(provider.calculate(repository, SizeCategory.STORE, location, 20)).isEmpty();
+  }
+
+  @Test
+  void shouldCalculateSizeOfShardsAndOtherFiles(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("svn");
+    createFile(location, "data/format", 2);
+    createFile(location, "data/db/current", 3);
+    createFile(location, "data/db/revs/0/1", 100);
+    createFile(location, "data/db/revs/1/1000", 200);
+    createFile(location, "data/db/revprops/0/1", 10);
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 1);
+
+    assertThat(size).hasValueSatisfying(categorySize -> {
+      assertThat(categorySize.getSizeInBytes()).isEqualTo(315.0);
+      assertThat(categorySize.getLargestFiles())
+        .singleElement()
+        .satisfies(file -> assertThat(file.getPath()).isEqualTo(Path.of("data", "db", "revs", "1", "1000").toString()));
+    });
+  }
+
+  @Test
+  void shouldCountRevisionFilesOfUnshardedRepositories(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("svn");
+    createFile(location, "data/db/revs/0", 100);
+    createFile(location, "data/db/revs/1", 200);
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    assertThat(size).hasValueSatisfying(categorySize -> assertThat(categorySize.getSizeInBytes()).isEqualTo(300.0));
+  }
+
+  @Test
+  void shouldReuseTotalOfUnchangedShard(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("svn");
+    createFile(location, "data/db/revs/0/1", 100);
+    Path shard = location.resolve("data/db/revs/0");
+    Files.setLastModifiedTime(shard, YESTERDAY);
+    provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    // rewriting a file does not touch the shard directory, so the cached total must be used
+    createFile(location, "data/db/revs/0/1", 500);
+    createFile(location, "data/db/revs/1/1000", 200);
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    assertThat(size).hasValueSatisfying(categorySize -> assertThat(categorySize.getSizeInBytes()).isEqualTo(300.0));
+  }
+
+  @Test
+  void shouldOnlyCountWalkedFiles(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("svn");
+    createFile(location, "data/db/revs/0/1", 100);
+    createFile(location, "data/db/revs/0/2", 100);
+    Files.setLastModifiedTime(location.resolve("data/db/revs/0"), YESTERDAY);
+    createFile(location, "data/db/revs/1/1000", 200);
+
+    Optional<CategorySize> first = provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+    Optional<CategorySize> second = provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    assertThat(first).hasValueSatisfying(categorySize -> assertThat(categorySize.getWalked().getFiles()).isEqualTo(3));
+    // the unchanged shard is taken from the cache, only the current one is walked again
+    assertThat(second).hasValueSatisfying(categorySize -> assertThat(categorySize.getWalked().getFiles()).isEqualTo(1));
+  }
+
+  @Test
+  void shouldWalkShardAgainIfModified(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("svn");
+    createFile(location, "data/db/revs/0/1", 100);
+    Path shard = location.resolve("data/db/revs/0");
+    Files.setLastModifiedTime(shard, YESTERDAY);
+    provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    createFile(location, "data/db/revs/0/2", 50);
+    Files.setLastModifiedTime(shard, FileTime.from(YESTERDAY.toInstant().plusSeconds(60)));
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    assertThat(size).hasValueSatisfying(categorySize -> assertThat(categorySize.getSizeInBytes()).isEqualTo(150.0));
+  }
+
+  @Test
+  void shouldForgetShardsOfDeletedRepository(@TempDir Path location) throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle("svn");
+    createFile(location, "data/db/revs/0/1", 100);
+    Path shard = location.resolve("data/db/revs/0");
+    Files.setLastModifiedTime(shard, YESTERDAY);
+    provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    provider.forget(repository);
+    createFile(location, "data/db/revs/0/1", 500);
+
+    Optional<CategorySize> size = provider.calculate(repository, SizeCategory.REPOSITORY, location, 20);
+
+    assertThat(size).hasValueSatisfying(categorySize -> assertThat(categorySize.getSizeInBytes()).isEqualTo(500.0));
+  }
+}